@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of filtering a large choice list, in each {@link MatchMode}.
+ * <br>{@code lookup} filters the whole list for a fresh input, {@code typing} simulates typing a word character by character,
+ * and {@code cycling} filters the list and then reads the matches offered by ten presses of the Up key.
+ * They should stay well below a frame budget (~16 ms).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChoiceFilterBenchmark {
+    private static final String[] SYLLABLES = {"an", "bel", "cor", "da", "el", "fi", "gor", "ha", "in", "jo", "ka", "lu",
+            "mar", "no", "or", "pe", "qui", "ra", "so", "tin", "u", "ve", "wa", "xe", "yo", "zu"};
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"PREFIX", "SUBSTRING", "FUZZY"})
+    public MatchMode mode;
+
+    private ChoiceIndex index;
+    private final ChoiceFilter filter = new ChoiceFilter();
+
+    @Setup
+    public void setup() {
+        index = new ChoiceIndex(createChoices(size, 42));
+    }
+
+    static List<String> createChoices(int size, long seed) {
+        Random rnd = new Random(seed);
+        List<String> choices = new ArrayList<>(size);
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < size; i++) {
+            sb.setLength(0);
+            int words = 1 + rnd.nextInt(3);
+            for(int w = 0; w < words; w++) {
+                if(w > 0) sb.append(' ');
+                int syllables = 1 + rnd.nextInt(4);
+                for(int s = 0; s < syllables; s++) {
+                    sb.append(SYLLABLES[rnd.nextInt(SYLLABLES.length)]);
+                }
+            }
+            sb.append('-').append(i);
+            choices.add(sb.toString());
+        }
+        return choices;
+    }
+
+    @Benchmark
+    public int lookup() {
+        filter.reset(index, mode, ChoiceFilter.DEFAULT_MAX_MATCHES);
+        return filter.update("mar");
+    }
+
+    @Benchmark
+    public int typing() {
+        filter.reset(index, mode, ChoiceFilter.DEFAULT_MAX_MATCHES);
+        int count = filter.update("m");
+        count += filter.update("ma");
+        count += filter.update("mar");
+        count += filter.update("marn");
+        count += filter.update("marno");
+        return count;
+    }
+
+    @Benchmark
+    public int cycling() {
+        filter.reset(index, mode, ChoiceFilter.DEFAULT_MAX_MATCHES);
+        filter.update("mar");
+        int length = 0;
+        for(int i = 0; i < 10 && i < filter.size(); i++) {
+            length += filter.get(i).length();
+        }
+        return length;
+    }
+}
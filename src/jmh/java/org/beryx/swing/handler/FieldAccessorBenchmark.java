@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the field access used to read the default values and to set the entered values of a data object.
+ * <br>The {@code direct} benchmarks are the baseline. {@link FieldAccessor} should be close to them,
+ * and much faster than the plain reflection used by the {@code reflective} benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldAccessorBenchmark {
+    public static class Product {
+        public String name = "Banana";
+        private int quantity = 1;
+        private Double unitPrice = 0.99;
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public void setQuantity(int quantity) {
+            this.quantity = quantity;
+        }
+    }
+
+    private final Product product = new Product();
+    private FieldAccessor name;
+    private FieldAccessor quantity;
+    private FieldAccessor unitPrice;
+    private Field nameField;
+    private Field quantityField;
+    private Field unitPriceField;
+
+    @Setup
+    public void setup() throws NoSuchFieldException {
+        name = FieldAccessor.of(Product.class, "name");
+        quantity = FieldAccessor.of(Product.class, "quantity");
+        unitPrice = FieldAccessor.of(Product.class, "unitPrice");
+        nameField = Product.class.getField("name");
+        quantityField = Product.class.getDeclaredField("quantity");
+        quantityField.setAccessible(true);
+        unitPriceField = Product.class.getDeclaredField("unitPrice");
+        unitPriceField.setAccessible(true);
+    }
+
+    @Benchmark
+    public Object directRecord() {
+        product.name = product.name;
+        product.setQuantity(product.getQuantity() + 1);
+        product.unitPrice = product.unitPrice;
+        return product;
+    }
+
+    @Benchmark
+    public Object accessorRecord() {
+        name.set(product, name.get(product));
+        quantity.set(product, (int) quantity.get(product) + 1);
+        unitPrice.set(product, unitPrice.get(product));
+        return product;
+    }
+
+    @Benchmark
+    public Object reflectiveRecord() throws IllegalAccessException {
+        nameField.set(product, nameField.get(product));
+        quantityField.setInt(product, quantityField.getInt(product) + 1);
+        unitPriceField.set(product, unitPriceField.get(product));
+        return product;
+    }
+
+    @Benchmark
+    public Object accessorLookup() {
+        return FieldAccessor.of(Product.class, "quantity");
+    }
+}
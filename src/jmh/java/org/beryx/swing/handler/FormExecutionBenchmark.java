@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.beryx.textio.TextIO;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the end-to-end execution of a compiled form in a {@link HeadlessTextTerminal}, in records per second.
+ * <br>For each record, the name is selected by typing a prefix and cycling to its first match,
+ * the quantity and the unit price are typed, and the color is selected by cycling through its substring matches.
+ * The values are validated and recorded in the history, as in an interactive session.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormExecutionBenchmark {
+    @Param({"1000", "100000"})
+    public int choiceCount;
+
+    private String userHome;
+    private Path tempDir;
+    private TextIO textIO;
+    private SwingHandler handler;
+
+    @Setup
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("textio-jmh");
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", tempDir.toString());
+
+        List<String> names = ChoiceFilterBenchmark.createChoices(choiceCount, 1);
+        List<String> colors = ChoiceFilterBenchmark.createChoices(choiceCount, 2);
+        HeadlessTextTerminal terminal = new HeadlessTextTerminal().withOutputRecorded(false);
+        terminal.addScript(createScript(names));
+        textIO = new TextIO(terminal);
+        handler = createForm(textIO, "jmh-form", new FormSetupBenchmark.Product(), names, colors);
+        handler.compile();
+    }
+
+    /**
+     * @return an endless script entering one record every four lines
+     */
+    static Iterator<String> createScript(List<String> names) {
+        return new Iterator<String>() {
+            private int line;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                int record = line / 4;
+                switch(line++ % 4) {
+                    case 0: return names.get(record % names.size()).substring(0, 3) + "[pressed UP]";
+                    case 1: return String.valueOf(1 + record % 20);
+                    case 2: return "1.99";
+                    default: return "or[pressed UP][pressed UP]";
+                }
+            }
+        };
+    }
+
+    static SwingHandler createForm(TextIO textIO, String appName, Object product, List<String> names, List<String> colors) {
+        SwingHandler handler = new SwingHandler(textIO, appName, product);
+        handler.addStringTask("name", "Product name").addChoices(names).constrainInputToChoices();
+        handler.addIntTask("quantity", "Quantity").withInputReaderConfigurator(r -> r.withMinVal(1).withMaxVal(100));
+        handler.addDoubleTask("unitPrice", "Unit price").withInputReaderConfigurator(r -> r.withMinVal(0.0));
+        handler.addStringTask("color", "Color").addChoices(colors).withMatchMode(MatchMode.SUBSTRING);
+        return handler;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        handler.close();
+        textIO.dispose();
+        System.setProperty("user.home", userHome);
+        try(Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public Object record() {
+        FormSetupBenchmark.Product product = new FormSetupBenchmark.Product();
+        handler.execute(product);
+        return product;
+    }
+}
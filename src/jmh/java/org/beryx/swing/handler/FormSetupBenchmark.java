@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.beryx.textio.TextIO;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares the per-record cost of a compiled form with that of a new handler per record, in records per second.
+ * <br>Both variants enter the same records in a {@link HeadlessTextTerminal}, with the script of {@link FormExecutionBenchmark}.
+ * {@code compiled} executes a form that was {@link SwingHandler#compile() compiled} once. {@code rebuilt} creates,
+ * executes and closes a new handler for each record, as an application that does not reuse its handler does.
+ * The history is acquired for the whole run, so that both variants share it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormSetupBenchmark {
+    private static final String APP_NAME = "jmh-form-setup";
+
+    public static class Product {
+        public String name;
+        public int quantity = 1;
+        public Double unitPrice;
+        public String color;
+    }
+
+    @Param({"100", "10000"})
+    public int choiceCount;
+
+    private String userHome;
+    private Path tempDir;
+    private History history;
+    private List<String> names;
+    private List<String> colors;
+    private TextIO textIO;
+    private SwingHandler compiledHandler;
+
+    @Setup
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("textio-jmh");
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", tempDir.toString());
+        history = History.acquire(APP_NAME);
+
+        names = ChoiceFilterBenchmark.createChoices(choiceCount, 1);
+        colors = ChoiceFilterBenchmark.createChoices(choiceCount, 2);
+        HeadlessTextTerminal terminal = new HeadlessTextTerminal().withOutputRecorded(false);
+        terminal.addScript(FormExecutionBenchmark.createScript(names));
+        textIO = new TextIO(terminal);
+        compiledHandler = FormExecutionBenchmark.createForm(textIO, APP_NAME, new Product(), names, colors).compile();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        compiledHandler.close();
+        history.release();
+        textIO.dispose();
+        System.setProperty("user.home", userHome);
+        try(Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public Object rebuilt() {
+        Product product = new Product();
+        try(SwingHandler handler = FormExecutionBenchmark.createForm(textIO, APP_NAME, product, names, colors)) {
+            handler.execute();
+        }
+        return product;
+    }
+
+    @Benchmark
+    public Object compiled() {
+        Product product = new Product();
+        compiledHandler.execute(product);
+        return product;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the cost of recording values in the {@link History} and of loading it, for histories of various sizes.
+ * <br>{@code addValue} records a value in memory, {@code saveRecord} records the four fields of a record and saves them,
+ * as {@link SwingHandler#execute()} does. {@code load} opens a saved history and reads the values of one key,
+ * {@code loadAll} reads the values of all keys. {@code search} searches the values of all keys containing a three-letter text,
+ * {@code searchPrefix} those containing a single letter.
+ * <br>The history files are written in a temporary directory, which replaces the user home directory during the benchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+    private static final String APP_NAME = "jmh-history";
+    private static final int KEY_COUNT = 10;
+
+    @Param({"1000", "10000", "100000"})
+    public int historySize;
+
+    private String userHome;
+    private Path tempDir;
+    private final String[] keys = new String[KEY_COUNT];
+    private List<String> values;
+    private History history;
+    private History searchHistory;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        tempDir = Files.createTempDirectory("textio-jmh");
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", tempDir.toString());
+        for(int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = "field" + i;
+        }
+        values = ChoiceFilterBenchmark.createChoices(historySize, 3);
+        try(History initial = newHistory()) {
+            for(int i = 0; i < historySize; i++) {
+                initial.addValue(keys[i % KEY_COUNT], values.get(i));
+            }
+        }
+        // the index is built synchronously, by the first search
+        searchHistory = newHistory().withSearchIndexExecutor(Runnable::run);
+        searchHistory.search("", null, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        System.setProperty("user.home", userHome);
+        try(Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * A new history for each iteration, so that the values added by an iteration do not pile up in memory.
+     */
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        history = newHistory();
+        for(String key : keys) {
+            history.getValues(key);
+        }
+    }
+
+    private History newHistory() {
+        return new History(APP_NAME)
+                .withMaxValuesPerKey(historySize / KEY_COUNT)
+                .withMaxValues(historySize)
+                .withSaveDelay(-1);
+    }
+
+    private String nextValue() {
+        return values.get(counter++ % historySize);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void addValue() {
+        history.addValue(keys[counter % KEY_COUNT], nextValue());
+    }
+
+    @Benchmark
+    public void saveRecord() {
+        for(int i = 0; i < 4; i++) {
+            history.addValue(keys[i], nextValue());
+        }
+        history.save();
+    }
+
+    @Benchmark
+    public List<String> load() {
+        return new History(APP_NAME).getValues(keys[0]);
+    }
+
+    @Benchmark
+    public int loadAll() {
+        History loaded = new History(APP_NAME);
+        int count = 0;
+        for(String key : keys) {
+            count += loaded.getValues(key).size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public List<String> search() {
+        return searchHistory.search(nextValue().substring(0, 3), null, 100);
+    }
+
+    @Benchmark
+    public List<String> searchPrefix() {
+        return searchHistory.search(nextValue().substring(0, 1), null, 100);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Filters the choices on a worker thread, so that a long-running filter never blocks the thread that requested it.
+ * <br>Each request gets a new generation number. Submitting a request cancels the computation of the previous one,
+ * and the results of a stale request are never published.
+ * In the ranked modes, the best matches found so far are published while the filter is still running.
+ * <br>The requests are processed in order by a single daemon thread, which owns the underlying {@link ChoiceFilter}.
+ */
+class BackgroundChoiceFilter {
+    private static final Logger logger = Logger.getLogger(BackgroundChoiceFilter.class.getName());
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "textio-choice-filter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong generation = new AtomicLong();
+    private final Object resultLock = new Object();
+    private Result latest;
+
+    // confined to the worker thread
+    private final ChoiceFilter filter = new ChoiceFilter();
+    private ChoiceIndex filterIndex;
+    private MatchMode filterMode;
+    private int filterMaxMatches;
+
+    /**
+     * The matches computed for a request. A result is immutable.
+     */
+    static final class Result implements ChoiceMatches {
+        final long generation;
+        final String input;
+        final boolean complete;
+        private final ChoiceIndex index;
+        private final int[] positions;
+        private final int count;
+
+        Result(long generation, String input, boolean complete, ChoiceIndex index, int[] positions, int count) {
+            this.generation = generation;
+            this.input = input;
+            this.complete = complete;
+            this.index = index;
+            this.positions = positions;
+            this.count = count;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public String get(int i) {
+            if(i >= count) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + count);
+            return index.get(positions[i]);
+        }
+    }
+
+    /**
+     * Submits a request, cancelling the previous one.
+     * @param indexSupplier provides the index; it is called on the worker thread
+     * @param listener receives the results of the request, on the worker thread, unless the request has become stale
+     * @return the generation of the request
+     */
+    public long submit(Supplier<ChoiceIndex> indexSupplier, MatchMode mode, int maxMatches, String input, Consumer<Result> listener) {
+        long gen = generation.incrementAndGet();
+        executor.execute(() -> {
+            if(isStale(gen)) return;
+            try {
+                run(gen, indexSupplier.get(), mode, maxMatches, input, listener);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Cannot filter the choices for '" + input + "'", e);
+            }
+        });
+        return gen;
+    }
+
+    private void run(long gen, ChoiceIndex index, MatchMode mode, int maxMatches, String input, Consumer<Result> listener) {
+        if(index != filterIndex || mode != filterMode || maxMatches != filterMaxMatches) {
+            filter.reset(index, mode, maxMatches);
+            filterIndex = index;
+            filterMode = mode;
+            filterMaxMatches = maxMatches;
+        }
+        int count = filter.update(input, new ChoiceFilter.Progress() {
+            @Override
+            public boolean isCancelled() {
+                return isStale(gen);
+            }
+
+            @Override
+            public void partialMatches(int[] positions, int count) {
+                publish(new Result(gen, input, false, index, positions, count), listener);
+            }
+        });
+        if(count < 0) return;
+        int[] positions = filter.copyPositions();
+        publish(new Result(gen, input, true, index, positions, positions.length), listener);
+    }
+
+    private void publish(Result result, Consumer<Result> listener) {
+        synchronized(resultLock) {
+            if(isStale(result.generation)) return;
+            latest = result;
+            resultLock.notifyAll();
+        }
+        listener.accept(result);
+    }
+
+    /**
+     * Cancels the pending request, if any.
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+    }
+
+    public boolean isStale(long gen) {
+        return gen != generation.get();
+    }
+
+    /**
+     * Waits until the request with the given generation is complete, or until the timeout elapses.
+     * @return the latest result of the request, which may be partial; null, if no result is available yet or the request is stale
+     */
+    public Result await(long gen, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized(resultLock) {
+            while(!isStale(gen) && (latest == null || latest.generation != gen || !latest.complete)) {
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0) break;
+                TimeUnit.NANOSECONDS.timedWait(resultLock, remaining);
+            }
+            return getLatest(gen);
+        }
+    }
+
+    /**
+     * @return the latest result of the request with the given generation, or null
+     */
+    public Result getLatest(long gen) {
+        synchronized(resultLock) {
+            return (latest != null && latest.generation == gen) ? latest : null;
+        }
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+}
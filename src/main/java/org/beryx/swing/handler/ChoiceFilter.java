@@ -0,0 +1,280 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.util.Arrays;
+
+/**
+ * Incrementally filters the choices of a {@link ChoiceIndex}.
+ * <br>The filter remembers the last input. If the new input extends it, the cached matches are narrowed in place,
+ * because they are a superset of the new matches. Otherwise (for example, after a deletion) the matches are
+ * computed again from the index.
+ * <br>In the {@link MatchMode#SUBSTRING SUBSTRING} and {@link MatchMode#FUZZY FUZZY} modes, only the best
+ * {@code maxMatches} candidates are presented. They are selected with a bounded heap, so the full list of matches is never sorted.
+ * <br>The filter reuses its buffers, so updating it does not allocate once the buffers are large enough.
+ * <br>An update can be given a {@link Progress}, which is checked every {@value #CHUNK_SIZE} candidates:
+ * it can cancel the update and, in the ranked modes, it receives the best matches found so far.
+ */
+public class ChoiceFilter implements ChoiceMatches {
+    public static final int DEFAULT_MAX_MATCHES = 100;
+    public static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Monitors a long-running update.
+     */
+    public interface Progress {
+        boolean isCancelled();
+
+        /**
+         * Called periodically in the {@link MatchMode#SUBSTRING SUBSTRING} and {@link MatchMode#FUZZY FUZZY} modes.
+         * @param positions the positions in the index of the best matches found so far, best first. The array is not reused.
+         */
+        void partialMatches(int[] positions, int count);
+    }
+
+    private ChoiceIndex index = ChoiceIndex.EMPTY;
+    private MatchMode mode = MatchMode.PREFIX;
+
+    private int[] positions = new int[0];
+    private int count;
+    private String input;
+
+    private int[] heapPositions = new int[0];
+    private int[] heapScores = new int[0];
+    private int heapCapacity;
+    private int heapSize;
+    private int[] ranked = new int[0];
+    private int rankedCount;
+
+    public void reset(ChoiceIndex index) {
+        reset(index, MatchMode.PREFIX, DEFAULT_MAX_MATCHES);
+    }
+
+    /**
+     * @param maxMatches the maximum number of matches presented in the ranked modes. It is ignored in the {@link MatchMode#PREFIX PREFIX} mode.
+     */
+    public void reset(ChoiceIndex index, MatchMode mode, int maxMatches) {
+        if(maxMatches <= 0) throw new IllegalArgumentException("maxMatches must be positive: " + maxMatches);
+        this.index = index;
+        this.mode = mode;
+        this.count = 0;
+        this.rankedCount = 0;
+        this.input = null;
+        if(positions.length < index.size()) {
+            positions = new int[index.size()];
+        }
+        this.heapCapacity = (mode == MatchMode.PREFIX) ? 0 : Math.min(maxMatches, index.size());
+        if(heapPositions.length < heapCapacity) {
+            heapPositions = new int[heapCapacity];
+            heapScores = new int[heapCapacity];
+            ranked = new int[heapCapacity];
+        }
+    }
+
+    /**
+     * Updates the matches for the given input.
+     * @return the number of matches presented
+     */
+    public int update(String input) {
+        return update(input, null);
+    }
+
+    /**
+     * Updates the matches for the given input, reporting the progress of the update.
+     * A cancelled update leaves no matches, and the next update computes the matches from scratch.
+     * @return the number of matches presented, or -1 if the update was cancelled
+     */
+    public int update(String input, Progress progress) {
+        boolean narrowing = this.input != null && extendsPrefix(input, this.input);
+        if(narrowing && input.length() == this.input.length()) {
+            return size();
+        }
+        this.input = input;
+        if(mode == MatchMode.PREFIX) {
+            if(narrowing) {
+                if(!narrowByPrefix(input, progress)) return cancel();
+            } else {
+                count = index.findByPrefix(input, positions);
+            }
+        } else {
+            String folded = ChoiceIndex.fold(input);
+            heapSize = 0;
+            if(narrowing) {
+                int newCount = 0;
+                for(int i = 0; i < count; i++) {
+                    if(progress != null && i % CHUNK_SIZE == CHUNK_SIZE - 1 && !reportProgress(progress)) return cancel();
+                    int pos = positions[i];
+                    int score = score(pos, folded);
+                    if(score != Integer.MIN_VALUE) {
+                        positions[newCount++] = pos;
+                        offer(pos, score);
+                    }
+                }
+                count = newCount;
+            } else {
+                count = 0;
+                for(int pos = 0; pos < index.size(); pos++) {
+                    if(progress != null && pos % CHUNK_SIZE == CHUNK_SIZE - 1 && !reportProgress(progress)) return cancel();
+                    int score = score(pos, folded);
+                    if(score != Integer.MIN_VALUE) {
+                        positions[count++] = pos;
+                        offer(pos, score);
+                    }
+                }
+            }
+            drainHeap();
+        }
+        return size();
+    }
+
+    private boolean narrowByPrefix(String prefix, Progress progress) {
+        int newCount = 0;
+        for(int i = 0; i < count; i++) {
+            if(progress != null && i % CHUNK_SIZE == CHUNK_SIZE - 1 && progress.isCancelled()) return false;
+            int pos = positions[i];
+            if(index.startsWith(pos, prefix)) {
+                positions[newCount++] = pos;
+            }
+        }
+        count = newCount;
+        return true;
+    }
+
+    private int cancel() {
+        input = null;
+        count = 0;
+        rankedCount = 0;
+        heapSize = 0;
+        return -1;
+    }
+
+    /**
+     * @return false, if the update is cancelled
+     */
+    private boolean reportProgress(Progress progress) {
+        if(progress.isCancelled()) return false;
+        int[] best = new int[heapSize];
+        int[] scores = new int[heapSize];
+        // insertion sort: the heap holds at most maxMatches entries
+        for(int i = 0; i < heapSize; i++) {
+            int pos = heapPositions[i];
+            int score = heapScores[i];
+            int j = i;
+            while(j > 0 && isWorse(best[j - 1], scores[j - 1], pos, score)) {
+                best[j] = best[j - 1];
+                scores[j] = scores[j - 1];
+                j--;
+            }
+            best[j] = pos;
+            scores[j] = score;
+        }
+        progress.partialMatches(best, heapSize);
+        return true;
+    }
+
+    private int score(int pos, String folded) {
+        if(mode == MatchMode.FUZZY) {
+            return index.fuzzyScore(pos, folded);
+        }
+        int offset = index.indexOf(pos, folded);
+        if(offset < 0) return Integer.MIN_VALUE;
+        return -(offset * 1024 + Math.min(index.length(pos), 1023));
+    }
+
+    /** Orders the heap entries: the worst entry (lowest score, then highest position) sits at the root. */
+    private boolean isWorse(int posA, int scoreA, int posB, int scoreB) {
+        return (scoreA != scoreB) ? (scoreA < scoreB) : (posA > posB);
+    }
+
+    private void offer(int pos, int score) {
+        if(heapSize < heapCapacity) {
+            int i = heapSize++;
+            while(i > 0) {
+                int parent = (i - 1) >>> 1;
+                if(!isWorse(pos, score, heapPositions[parent], heapScores[parent])) break;
+                heapPositions[i] = heapPositions[parent];
+                heapScores[i] = heapScores[parent];
+                i = parent;
+            }
+            heapPositions[i] = pos;
+            heapScores[i] = score;
+        } else if(heapSize > 0 && isWorse(heapPositions[0], heapScores[0], pos, score)) {
+            siftDown(pos, score);
+        }
+    }
+
+    private void siftDown(int pos, int score) {
+        int i = 0;
+        while(true) {
+            int child = 2 * i + 1;
+            if(child >= heapSize) break;
+            if(child + 1 < heapSize && isWorse(heapPositions[child + 1], heapScores[child + 1], heapPositions[child], heapScores[child])) {
+                child++;
+            }
+            if(!isWorse(heapPositions[child], heapScores[child], pos, score)) break;
+            heapPositions[i] = heapPositions[child];
+            heapScores[i] = heapScores[child];
+            i = child;
+        }
+        heapPositions[i] = pos;
+        heapScores[i] = score;
+    }
+
+    private void drainHeap() {
+        rankedCount = heapSize;
+        while(heapSize > 0) {
+            ranked[heapSize - 1] = heapPositions[0];
+            heapSize--;
+            if(heapSize > 0) {
+                siftDown(heapPositions[heapSize], heapScores[heapSize]);
+            }
+        }
+    }
+
+    private static boolean extendsPrefix(String text, String prefix) {
+        int len = prefix.length();
+        if(text.length() < len) return false;
+        for(int i = 0; i < len; i++) {
+            if(ChoiceIndex.fold(text.charAt(i)) != ChoiceIndex.fold(prefix.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return (mode == MatchMode.PREFIX) ? count : rankedCount;
+    }
+
+    @Override
+    public String get(int i) {
+        return index.get((mode == MatchMode.PREFIX) ? positions[i] : ranked[i]);
+    }
+
+    /**
+     * @return the positions in the index of the matches presented, in presentation order
+     */
+    public int[] copyPositions() {
+        return (mode == MatchMode.PREFIX) ? Arrays.copyOf(positions, count) : Arrays.copyOf(ranked, rankedCount);
+    }
+
+    public ChoiceIndex getIndex() {
+        return index;
+    }
+
+    public MatchMode getMode() {
+        return mode;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable, case-insensitive prefix index over a list of choices.
+ * <br>The choices are kept in declaration order and identified by their position in this order.
+ * A case-folded copy of each choice is sorted once, so that the choices starting with a given prefix
+ * can be found by binary search instead of scanning the whole list.
+ */
+public class ChoiceIndex {
+    public static final ChoiceIndex EMPTY = new ChoiceIndex(Collections.emptyList());
+
+    private final String[] choices;
+    private final String[] keys;
+    private final String[] sortedKeys;
+    private final int[] sortedPositions;
+
+    public ChoiceIndex(List<String> choices) {
+        int size = choices.size();
+        this.choices = choices.toArray(new String[size]);
+        this.keys = new String[size];
+        Integer[] order = new Integer[size];
+        for(int i = 0; i < size; i++) {
+            keys[i] = fold(this.choices[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing((Integer pos) -> keys[pos]).thenComparingInt(pos -> pos));
+        this.sortedKeys = new String[size];
+        this.sortedPositions = new int[size];
+        for(int i = 0; i < size; i++) {
+            sortedKeys[i] = keys[order[i]];
+            sortedPositions[i] = order[i];
+        }
+    }
+
+    public int size() {
+        return choices.length;
+    }
+
+    public String get(int position) {
+        return choices[position];
+    }
+
+    /**
+     * @return true, if the choice at the given position starts with the given prefix (ignoring case)
+     */
+    public boolean startsWith(int position, CharSequence prefix) {
+        return startsWithFolded(keys[position], prefix);
+    }
+
+    /**
+     * @param foldedText a text already passed through {@link #fold(String)}
+     * @return the index of the first occurrence of the text in the choice at the given position (ignoring case), or -1
+     */
+    public int indexOf(int position, String foldedText) {
+        return keys[position].indexOf(foldedText);
+    }
+
+    /**
+     * @return the length of the choice at the given position
+     */
+    public int length(int position) {
+        return keys[position].length();
+    }
+
+    /**
+     * Computes a fuzzy matching score, by looking for the characters of the pattern, in order, in the choice at the given position.
+     * Consecutive characters and characters at the start of a word are rewarded, gaps are penalized.
+     * @param foldedPattern a pattern already passed through {@link #fold(String)}
+     * @return the score, or {@link Integer#MIN_VALUE} if the choice does not contain all the characters of the pattern in order
+     */
+    public int fuzzyScore(int position, String foldedPattern) {
+        String key = keys[position];
+        int score = 0;
+        int prev = -1;
+        for(int i = 0; i < foldedPattern.length(); i++) {
+            int found = key.indexOf(foldedPattern.charAt(i), prev + 1);
+            if(found < 0) return Integer.MIN_VALUE;
+            if(found == prev + 1) {
+                score += (prev < 0) ? 8 : 5;
+            } else {
+                score -= Math.min(found - prev - 1, 3);
+            }
+            if(found == 0 || !Character.isLetterOrDigit(key.charAt(found - 1))) {
+                score += 3;
+            }
+            prev = found;
+        }
+        return score;
+    }
+
+    /**
+     * Collects the positions of the choices starting with the given prefix (ignoring case).
+     * @param prefix the prefix to look for
+     * @param positions the array that receives the positions, in declaration order. Its length must be at least {@link #size()}.
+     * @return the number of positions stored in the array
+     */
+    public int findByPrefix(CharSequence prefix, int[] positions) {
+        if(prefix.length() == 0) {
+            for(int i = 0; i < choices.length; i++) {
+                positions[i] = i;
+            }
+            return choices.length;
+        }
+        int from = lowerBound(prefix);
+        int count = 0;
+        for(int i = from; i < sortedKeys.length && startsWithFolded(sortedKeys[i], prefix); i++) {
+            positions[count++] = sortedPositions[i];
+        }
+        Arrays.sort(positions, 0, count);
+        return count;
+    }
+
+    private int lowerBound(CharSequence prefix) {
+        int low = 0;
+        int high = sortedKeys.length;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(compareFolded(sortedKeys[mid], prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int compareFolded(String key, CharSequence text) {
+        int len = Math.min(key.length(), text.length());
+        for(int i = 0; i < len; i++) {
+            int diff = key.charAt(i) - fold(text.charAt(i));
+            if(diff != 0) return diff;
+        }
+        return key.length() - text.length();
+    }
+
+    static boolean startsWithFolded(String key, CharSequence prefix) {
+        int len = prefix.length();
+        if(key.length() < len) return false;
+        for(int i = 0; i < len; i++) {
+            if(key.charAt(i) != fold(prefix.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    static String fold(String s) {
+        char[] chars = s.toCharArray();
+        for(int i = 0; i < chars.length; i++) {
+            chars[i] = fold(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @param foldedText a text already passed through {@link #fold(String)}
+     * @return true, if the given string contains the text (ignoring case). Nothing is allocated.
+     */
+    static boolean containsFolded(String s, String foldedText) {
+        int length = foldedText.length();
+        outer:
+        for(int i = 0; i + length <= s.length(); i++) {
+            for(int j = 0; j < length; j++) {
+                if(fold(s.charAt(i + j)) != foldedText.charAt(j)) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Loads the choices of a {@link ChoiceProvider} in the background, and caches the results of the most recent prefixes.
+ * <br>Only one load is in progress at a time: requesting another prefix cancels the current load.
+ * A prefix that extends a cached prefix with a complete result (fewer than {@code maxChoices} choices)
+ * is answered from the cache, without calling the provider.
+ */
+class ChoiceLoader {
+    private static final Logger logger = Logger.getLogger(ChoiceLoader.class.getName());
+
+    static final int DEFAULT_MAX_CHOICES = 1000;
+    static final int CACHE_SIZE = 64;
+
+    private static ExecutorService executor;
+
+    private final ChoiceProvider provider;
+    private final int maxChoices;
+    private final Map<String, Result> cache = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private String pendingPrefix;
+    private Future<ChoiceIndex> pending;
+
+    private static class Result {
+        final ChoiceIndex index;
+        final boolean complete;
+
+        Result(ChoiceIndex index, boolean complete) {
+            this.index = index;
+            this.complete = complete;
+        }
+    }
+
+    ChoiceLoader(ChoiceProvider provider, int maxChoices) {
+        if(maxChoices <= 0) throw new IllegalArgumentException("maxChoices must be positive: " + maxChoices);
+        this.provider = provider;
+        this.maxChoices = maxChoices;
+    }
+
+    /**
+     * Starts loading the choices for the given prefix, unless they are cached or already being loaded.
+     */
+    synchronized Future<ChoiceIndex> request(String prefix) {
+        String key = ChoiceIndex.fold(prefix);
+        ChoiceIndex cached = lookup(key);
+        if(cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        if(pending != null) {
+            if(key.equals(pendingPrefix) && !pending.isCancelled()) return pending;
+            pending.cancel(true);
+        }
+        pendingPrefix = key;
+        pending = getExecutor().submit(() -> load(key, prefix));
+        return pending;
+    }
+
+    /**
+     * @return the choices for the given prefix, waiting for them to be loaded if necessary.
+     * If the provider fails, the failure is logged and no choices are returned.
+     */
+    ChoiceIndex get(String prefix) {
+        for(int attempt = 0; attempt < 2; attempt++) {
+            try {
+                return request(prefix).get();
+            } catch (CancellationException e) {
+                // cancelled by a request for another prefix: try again
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return ChoiceIndex.EMPTY;
+            } catch (ExecutionException e) {
+                logger.warning("Cannot load choices for '" + prefix + "': " + e.getCause());
+                return ChoiceIndex.EMPTY;
+            }
+        }
+        return ChoiceIndex.EMPTY;
+    }
+
+    private ChoiceIndex lookup(String key) {
+        Result result = cache.get(key);
+        if(result != null) return result.index;
+        for(int len = key.length() - 1; len >= 0; len--) {
+            Result shorter = cache.get(key.substring(0, len));
+            if(shorter != null && shorter.complete) {
+                ChoiceIndex index = narrow(shorter.index, key);
+                cache.put(key, new Result(index, true));
+                return index;
+            }
+        }
+        return null;
+    }
+
+    private static ChoiceIndex narrow(ChoiceIndex index, String prefix) {
+        int[] positions = new int[index.size()];
+        int count = index.findByPrefix(prefix, positions);
+        List<String> choices = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            choices.add(index.get(positions[i]));
+        }
+        return new ChoiceIndex(choices);
+    }
+
+    private ChoiceIndex load(String key, String prefix) throws Exception {
+        List<String> choices = provider.getChoices(prefix, maxChoices);
+        ChoiceIndex index = new ChoiceIndex(choices);
+        synchronized(this) {
+            cache.put(key, new Result(index, choices.size() < maxChoices));
+        }
+        return index;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if(executor == null) {
+            executor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "textio-choice-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.beryx.textio.swing.SwingTextTerminal;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * A popup that shows the choices matching the partial input of a {@link SwingTextTerminal}.
+ * <br>The list is virtualized: its model reads the matches directly from a {@link ChoiceFilter},
+ * and the rows have a fixed size, so only the visible rows are ever measured and rendered.
+ * The matches are updated incrementally as the user types, and selecting a choice replaces the input.
+ * <br>With background filtering, the matches are computed on a worker thread and the list shows the best matches
+ * found so far until the filter completes. Only the results for the latest input are shown.
+ * <br>The popup does not take the keyboard focus. All its methods must be called on the event dispatch thread.
+ */
+public class ChoicePopup {
+    private static final Logger logger = Logger.getLogger(ChoicePopup.class.getName());
+
+    private static final int VISIBLE_ROWS = 10;
+    private static final String PROTOTYPE_VALUE = "MMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMMM";
+
+    private final SwingTextTerminal terminal;
+    private final ChoiceFilter filter = new ChoiceFilter();
+    private final BackgroundChoiceFilter backgroundFilter;
+    private final AtomicReference<BackgroundChoiceFilter.Result> pendingResult = new AtomicReference<>();
+    private ChoiceMatches matches = ChoiceMatches.EMPTY;
+    private ChoiceIndex index = ChoiceIndex.EMPTY;
+    private MatchMode mode = MatchMode.PREFIX;
+    private int maxMatches = ChoiceFilter.DEFAULT_MAX_MATCHES;
+    private long shownGeneration = -1;
+    private final FilterListModel model = new FilterListModel();
+    private final JList<String> list = new JList<>(model);
+    private final DocumentListener documentListener;
+    private JWindow window;
+    /** The partial input typed by the user, for which the matches have been computed. */
+    private String filterInput = "";
+    private boolean selecting;
+    private boolean refreshScheduled;
+
+    @SuppressWarnings("serial")
+    private class FilterListModel extends AbstractListModel<String> {
+        private int size;
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String getElementAt(int index) {
+            return matches.get(index);
+        }
+
+        void refresh() {
+            int oldSize = size;
+            size = matches.size();
+            if(oldSize > size) {
+                fireIntervalRemoved(this, size, oldSize - 1);
+            } else if(oldSize < size) {
+                fireIntervalAdded(this, oldSize, size - 1);
+            }
+            if(size > 0) {
+                fireContentsChanged(this, 0, Math.min(oldSize, size) - 1);
+            }
+        }
+    }
+
+    public ChoicePopup(SwingTextTerminal terminal) {
+        this(terminal, false);
+    }
+
+    /**
+     * @param background true, if the matches should be computed on a worker thread
+     */
+    public ChoicePopup(SwingTextTerminal terminal, boolean background) {
+        this.terminal = terminal;
+        this.backgroundFilter = background ? new BackgroundChoiceFilter() : null;
+        JTextPane textPane = terminal.getTextPane();
+        list.setFont(textPane.getFont());
+        list.setPrototypeCellValue(PROTOTYPE_VALUE);
+        list.setVisibleRowCount(VISIBLE_ROWS);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setFocusable(false);
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int index = list.locationToIndex(e.getPoint());
+                if(index >= 0) select(index);
+            }
+        });
+        this.documentListener = new DocumentListener() {
+            @Override public void insertUpdate(DocumentEvent e) {inputChanged();}
+            @Override public void removeUpdate(DocumentEvent e) {inputChanged();}
+            @Override public void changedUpdate(DocumentEvent e) {}
+        };
+        textPane.getDocument().addDocumentListener(documentListener);
+    }
+
+    /**
+     * Shows the choices of the given index that match the current partial input.
+     */
+    public void show(ChoiceIndex index, MatchMode mode, int maxMatches) {
+        this.index = index;
+        this.mode = mode;
+        this.maxMatches = maxMatches;
+        if(backgroundFilter == null) {
+            filter.reset(index, mode, maxMatches);
+        }
+        updateMatches();
+        if(window == null) {
+            window = new JWindow(SwingUtilities.getWindowAncestor(terminal.getTextPane()));
+            window.setFocusableWindowState(false);
+            window.getContentPane().add(new JScrollPane(list));
+            window.pack();
+        }
+        window.setLocation(getLocationBelowCaret());
+        window.setVisible(true);
+    }
+
+    public void hide() {
+        if(window != null) {
+            window.setVisible(false);
+        }
+        if(backgroundFilter != null) {
+            backgroundFilter.cancel();
+        }
+        filter.reset(ChoiceIndex.EMPTY);
+        setMatches(ChoiceMatches.EMPTY);
+    }
+
+    public boolean isShowing() {
+        return window != null && window.isVisible();
+    }
+
+    /**
+     * Moves the selection by the given number of rows and replaces the input with the selected choice.
+     * Moving before the first row restores the partial input typed by the user.
+     */
+    public void moveSelection(int delta) {
+        if(!isShowing() || model.getSize() == 0) return;
+        int index = Math.max(-1, Math.min(model.getSize() - 1, list.getSelectedIndex() + delta));
+        if(index < 0) {
+            list.clearSelection();
+            replaceInput(filterInput);
+        } else {
+            select(index);
+        }
+    }
+
+    public void dispose() {
+        terminal.getTextPane().getDocument().removeDocumentListener(documentListener);
+        if(backgroundFilter != null) {
+            backgroundFilter.shutdown();
+        }
+        if(window != null) {
+            window.dispose();
+            window = null;
+        }
+    }
+
+    private void select(int index) {
+        list.setSelectedIndex(index);
+        list.ensureIndexIsVisible(index);
+        replaceInput(model.getElementAt(index));
+    }
+
+    private void replaceInput(String text) {
+        selecting = true;
+        try {
+            terminal.replaceInput(text, false);
+        } finally {
+            selecting = false;
+        }
+    }
+
+    /**
+     * Updates the matches after the user has edited the input. The update is deferred until the edit is complete,
+     * and the updates requested by consecutive edits are coalesced.
+     */
+    private void inputChanged() {
+        if(selecting || !isShowing() || refreshScheduled) return;
+        refreshScheduled = true;
+        SwingUtilities.invokeLater(() -> {
+            refreshScheduled = false;
+            if(isShowing()) updateMatches();
+        });
+    }
+
+    private void updateMatches() {
+        String input = terminal.getPartialInput();
+        filterInput = input;
+        if(backgroundFilter == null) {
+            filter.update(input);
+            setMatches(filter);
+            return;
+        }
+        ChoiceIndex choiceIndex = index;
+        backgroundFilter.submit(() -> choiceIndex, mode, maxMatches, input, result -> {
+            // the results published while a previous one is waiting for the event dispatch thread replace it
+            if(pendingResult.getAndSet(result) == null) {
+                SwingUtilities.invokeLater(this::showPendingResult);
+            }
+        });
+    }
+
+    private void showPendingResult() {
+        BackgroundChoiceFilter.Result result = pendingResult.getAndSet(null);
+        if(result == null || backgroundFilter.isStale(result.generation) || !isShowing()) return;
+        boolean sameRequest = (result.generation == shownGeneration);
+        shownGeneration = result.generation;
+        int selectedIndex = list.getSelectedIndex();
+        setMatches(result);
+        if(sameRequest && selectedIndex >= 0 && selectedIndex < model.getSize()) {
+            list.setSelectedIndex(selectedIndex);
+        }
+    }
+
+    private void setMatches(ChoiceMatches matches) {
+        this.matches = matches;
+        model.refresh();
+        list.clearSelection();
+        if(model.getSize() > 0) list.ensureIndexIsVisible(0);
+    }
+
+    // modelToView is deprecated since Java 9, but its replacement modelToView2D is not available on Java 8
+    @SuppressWarnings("deprecation")
+    private Point getLocationBelowCaret() {
+        JTextPane textPane = terminal.getTextPane();
+        Point location = new Point(0, textPane.getHeight());
+        try {
+            Rectangle caret = textPane.modelToView(textPane.getCaretPosition());
+            if(caret != null) {
+                location = new Point(caret.x, caret.y + caret.height);
+            }
+        } catch (BadLocationException e) {
+            logger.fine("Cannot locate the caret: " + e);
+        }
+        SwingUtilities.convertPointToScreen(location, textPane);
+        return location;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Supplies the choices of a task on demand, for a given prefix, instead of having them all in memory.
+ * <br>The provider is called on a background thread. A call whose result is no longer needed, because the input
+ * has changed in the meantime, is interrupted: long-running providers should check {@link Thread#isInterrupted()}.
+ */
+@FunctionalInterface
+public interface ChoiceProvider {
+    /**
+     * @return at most {@code maxChoices} choices that start with the given prefix, ignoring case
+     */
+    List<String> getChoices(String prefix, int maxChoices) throws IOException;
+}
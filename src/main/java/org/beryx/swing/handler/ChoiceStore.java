@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * The choices of a task, in declaration order.
+ * <br>Implementations provide constant-time membership checks, which are used when the input is constrained to the choices.
+ */
+public interface ChoiceStore<T> {
+    void addAll(List<T> values);
+
+    boolean contains(T value);
+
+    int size();
+
+    /**
+     * @return the text displayed for the choice at the given position
+     */
+    String getText(int position);
+
+    /**
+     * @return a read-only view of the displayed texts. The texts are computed on demand.
+     */
+    default List<String> asStrings() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return getText(index);
+            }
+
+            @Override
+            public int size() {
+                return ChoiceStore.this.size();
+            }
+        };
+    }
+}
@@ -40,28 +40,35 @@ public class Demo {
         TextIO textIO = new TextIO(terminal);
         terminal.setBookmark("start");
 
+        SwingHandler handler = new SwingHandler(textIO, "mars-demo", new Product());
+        handler.addStringTask("name", "Product name")
+                .addChoices("air conditioner", "air ioniser", "air purifier", "appliance plug", "aroma lamp", "attic fan", "bachelor griller", "back boiler", "beverage opener", "blender", "box mangle", "can opener", "ceiling fan", "central vacuum cleaner", "clothes dryer", "clothes iron", "cold-pressed juicer", "combo washer dryer", "dish draining closet", "dishwasher", "domestic robot", "drawer dishwasher", "electric water boiler", "exhaust hood", "fan heater", "flame supervision device", "forced-air", "futon dryer", "garbage disposal unit", "gas appliance", "go-to-bed matchbox", "hair dryer", "hair iron", "hob (hearth)", "home server", "humidifier", "hvac", "icebox", "kimchi refrigerator", "light fixture", "light", "mangle (machine)", "micathermic heater", "microwave oven", "mobile charger", "mousetrap", "oil heater", "oven", "patio heater", "paper shredder", "radiator (heating)", "refrigerator", "sewing machine", "space heater", "steam mop", "stove", "sump pump", "television", "tie press", "toaster and toaster ovens", "trouser press", "vacuum cleaner", "washing machine", "water cooker", "water purifier", "water heater", "window fan", "waffle iron")
+                .constrainInputToChoices();
+        handler.addIntTask("quantity", "Quantity")
+                .withInputReaderConfigurator(r -> r.withMinVal(1).withMaxVal(50))
+                .addChoices(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15);
+        handler.addDoubleTask("unitPrice", "Unit price")
+                .withInputReaderConfigurator(r -> r.withMinVal(0.01).withMaxVal(99.99))
+                .addChoices(0.59, 0.86, 0.99, 1.14, 1.55, 1.63, 1.74, 1.99, 2.55, 2.88, 2.99);
+        handler.addStringTask("color", "Color")
+                .withInputReaderConfigurator(r -> r.withPropertiesPrefix("highlight"))
+                .addChoices("amaranth", "amber", "amethyst", "apricot", "aquamarine", "azure", "baby blue", "beige", "black", "blue", "blue-green", "blue-violet", "blush", "bronze", "brown", "burgundy", "byzantium", "carmine", "cerise", "cerulean", "champagne", "chartreuse", "chocolate", "cobalt blue", "coffee", "copper", "coral", "crimson", "cyan", "desert sand", "electric blue", "emerald", "erin", "gold", "gray", "green", "harlequin", "indigo", "ivory", "jade", "jungle green", "lavender", "lemon", "lilac", "lime", "magenta", "magenta rose", "maroon", "mauve", "navy blue", "ocher", "olive", "orange", "orange-red", "orchid", "peach", "pear", "periwinkle", "persian blue", "pink", "plum", "prussian blue", "puce", "purple", "raspberry", "red", "red-violet", "rose", "ruby", "salmon", "sangria", "sapphire", "scarlet", "silver", "slate gray", "spring bud", "spring green", "tan", "taupe", "teal", "turquoise", "violet", "viridian", "white", "yellow");
+
+        handler.compile();
+
         while(true) {
             Product product = new Product();
-            SwingHandler handler = new SwingHandler(textIO, "mars-demo", product);
+            handler.rebind(product);
 
-            terminal.println("---------------------------------------------------------------------------------------------------------");
-            terminal.println("|   Use the Up and Down arrow keys to scroll through choices.                                           |");
-            terminal.println("|   Use the Ctrl-Shift-Left and Ctrl-Shift-Right arrow keys to scroll through previous entered values.  |");
-            terminal.println("|   Press '" + handler.getBackKeyStroke() + "' to go back to the previous field.                                                    |");
-            terminal.println("---------------------------------------------------------------------------------------------------------\n");
+            terminal.batch(() -> {
+                terminal.println("---------------------------------------------------------------------------------------------------------");
+                terminal.println("|   Use the Up and Down arrow keys to scroll through choices.                                           |");
+                terminal.println("|   Use the Ctrl-Shift-Left and Ctrl-Shift-Right arrow keys to scroll through previous entered values.  |");
+                terminal.println("|   Press '" + handler.getChoicePopupKeyStroke() + "' to show or hide the list of choices.                                                |");
+                terminal.println("|   Press '" + handler.getBackKeyStroke() + "' to go back to the previous field.                                                    |");
+                terminal.println("---------------------------------------------------------------------------------------------------------\n");
+            });
 
-            handler.addStringTask("name", "Product name")
-                    .addChoices("air conditioner", "air ioniser", "air purifier", "appliance plug", "aroma lamp", "attic fan", "bachelor griller", "back boiler", "beverage opener", "blender", "box mangle", "can opener", "ceiling fan", "central vacuum cleaner", "clothes dryer", "clothes iron", "cold-pressed juicer", "combo washer dryer", "dish draining closet", "dishwasher", "domestic robot", "drawer dishwasher", "electric water boiler", "exhaust hood", "fan heater", "flame supervision device", "forced-air", "futon dryer", "garbage disposal unit", "gas appliance", "go-to-bed matchbox", "hair dryer", "hair iron", "hob (hearth)", "home server", "humidifier", "hvac", "icebox", "kimchi refrigerator", "light fixture", "light", "mangle (machine)", "micathermic heater", "microwave oven", "mobile charger", "mousetrap", "oil heater", "oven", "patio heater", "paper shredder", "radiator (heating)", "refrigerator", "sewing machine", "space heater", "steam mop", "stove", "sump pump", "television", "tie press", "toaster and toaster ovens", "trouser press", "vacuum cleaner", "washing machine", "water cooker", "water purifier", "water heater", "window fan", "waffle iron")
-                    .constrainInputToChoices();
-            handler.addIntTask("quantity", "Quantity")
-                    .withInputReaderConfigurator(r -> r.withMinVal(1).withMaxVal(50))
-                    .addChoices(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15);
-            handler.addDoubleTask("unitPrice", "Unit price")
-                    .withInputReaderConfigurator(r -> r.withMinVal(0.01).withMaxVal(99.99))
-                    .addChoices(0.59, 0.86, 0.99, 1.14, 1.55, 1.63, 1.74, 1.99, 2.55, 2.88, 2.99);
-            handler.addStringTask("color", "Color")
-                    .withInputReaderConfigurator(r -> r.withPropertiesPrefix("highlight"))
-                    .addChoices("amaranth", "amber", "amethyst", "apricot", "aquamarine", "azure", "baby blue", "beige", "black", "blue", "blue-green", "blue-violet", "blush", "bronze", "brown", "burgundy", "byzantium", "carmine", "cerise", "cerulean", "champagne", "chartreuse", "chocolate", "cobalt blue", "coffee", "copper", "coral", "crimson", "cyan", "desert sand", "electric blue", "emerald", "erin", "gold", "gray", "green", "harlequin", "indigo", "ivory", "jade", "jungle green", "lavender", "lemon", "lilac", "lime", "magenta", "magenta rose", "maroon", "mauve", "navy blue", "ocher", "olive", "orange", "orange-red", "orchid", "peach", "pear", "periwinkle", "persian blue", "pink", "plum", "prussian blue", "puce", "purple", "raspberry", "red", "red-violet", "rose", "ruby", "salmon", "sangria", "sapphire", "scarlet", "silver", "slate gray", "spring bud", "spring green", "tan", "taupe", "teal", "turquoise", "violet", "viridian", "white", "yellow");
             handler.execute();
 
             terminal.println("\nProduct info: " + product);
@@ -71,6 +78,7 @@ public class Demo {
             terminal.resetToBookmark("start");
         }
 
+        handler.close();
         textIO.dispose();
     }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Floating-point choices, stored as primitive doubles.
+ * <br>Ranges added with {@link #addRange(double, double, double)} are never materialized:
+ * membership is checked arithmetically (with a tolerance proportional to the step)
+ * and the displayed texts are computed on demand.
+ */
+public class DoubleChoices implements ChoiceStore<Double> {
+    private double[] values = new double[16];
+    private int valueCount;
+    private final LongHashSet valueSet = new LongHashSet();
+    private final List<Range> ranges = new ArrayList<>();
+    private final List<int[]> segments = new ArrayList<>();
+    /** The position of the first choice of each segment. */
+    private int[] segmentStarts = new int[16];
+    private int size;
+
+    private static class Range {
+        final BigDecimal from;
+        final BigDecimal step;
+        final double fromValue;
+        final double stepValue;
+        final int count;
+
+        Range(double from, double step, int count) {
+            this.from = BigDecimal.valueOf(from);
+            this.step = BigDecimal.valueOf(step);
+            this.fromValue = from;
+            this.stepValue = step;
+            this.count = count;
+        }
+
+        boolean contains(double value) {
+            double steps = (value - fromValue) / stepValue;
+            long n = Math.round(steps);
+            return n >= 0 && n < count && Math.abs(steps - n) < 1e-9;
+        }
+
+        double get(int index) {
+            return from.add(step.multiply(BigDecimal.valueOf(index))).doubleValue();
+        }
+    }
+
+    @Override
+    public void addAll(List<Double> values) {
+        for(Double value : values) {
+            add(value);
+        }
+    }
+
+    public void add(double value) {
+        if(valueCount == values.length) {
+            values = Arrays.copyOf(values, 2 * valueCount);
+        }
+        values[valueCount] = value;
+        valueSet.add(bits(value));
+        addSegment(-1, valueCount++, 1);
+    }
+
+    /**
+     * Adds the values from, from + step, from + 2 * step, ... up to (and including, if reached) to.
+     * The bounds and the step must be finite.
+     */
+    public void addRange(double from, double to, double step) {
+        if(!Double.isFinite(from) || !Double.isFinite(to)) throw new IllegalArgumentException("Invalid range: " + from + ".." + to);
+        if(!(step > 0) || !Double.isFinite(step)) throw new IllegalArgumentException("step must be positive and finite: " + step);
+        if(!(to >= from)) throw new IllegalArgumentException("Invalid range: " + from + ".." + to);
+        double count = Math.floor((to - from) / step + 1e-9) + 1;
+        if(size + count > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Too many choices in range " + from + ".." + to);
+        ranges.add(new Range(from, step, (int)count));
+        addSegment(ranges.size() - 1, 0, (int)count);
+    }
+
+    /** A segment is {rangeIndex (-1 for explicit values), offset, length}. Consecutive explicit values share a segment. */
+    private void addSegment(int rangeIndex, int offset, int length) {
+        if(rangeIndex < 0 && !segments.isEmpty()) {
+            int[] last = segments.get(segments.size() - 1);
+            if(last[0] < 0 && last[1] + last[2] == offset) {
+                last[2] += length;
+                size += length;
+                return;
+            }
+        }
+        if(segments.size() == segmentStarts.length) {
+            segmentStarts = Arrays.copyOf(segmentStarts, 2 * segments.size());
+        }
+        segmentStarts[segments.size()] = size;
+        segments.add(new int[] {rangeIndex, offset, length});
+        size += length;
+    }
+
+    private static long bits(double value) {
+        return Double.doubleToLongBits(value == 0.0 ? 0.0 : value);
+    }
+
+    @Override
+    public boolean contains(Double value) {
+        return value != null && contains(value.doubleValue());
+    }
+
+    public boolean contains(double value) {
+        if(valueSet.contains(bits(value))) return true;
+        for(Range range : ranges) {
+            if(range.contains(value)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public double get(int position) {
+        if(position < 0 || position >= size) throw new IndexOutOfBoundsException("Position: " + position + ", size: " + size);
+        int segmentIndex = Arrays.binarySearch(segmentStarts, 0, segments.size(), position);
+        if(segmentIndex < 0) segmentIndex = -segmentIndex - 2;
+        int[] segment = segments.get(segmentIndex);
+        int pos = position - segmentStarts[segmentIndex];
+        return (segment[0] < 0) ? values[segment[1] + pos] : ranges.get(segment[0]).get(pos);
+    }
+
+    @Override
+    public String getText(int position) {
+        return Double.toString(get(position));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads and writes a named property of a data object through {@link MethodHandle}s.
+ * <br>Accessors are resolved once per class and property name and cached for the whole process.
+ * A property named {@code foo} is resolved by looking, in this order, for:
+ * <ul>
+ *     <li>a public field {@code foo}</li>
+ *     <li>a getter {@code getFoo()} / {@code isFoo()} or a record-style accessor {@code foo()}, and a setter {@code setFoo(...)}</li>
+ *     <li>a non-public field {@code foo}, declared in the class or one of its superclasses</li>
+ * </ul>
+ * The methods declared by {@link Object}, such as {@code getClass()} or {@code hashCode()}, are never used as accessors.
+ */
+public final class FieldAccessor {
+    private static final MethodType GENERIC_GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType GENERIC_SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final ClassValue<Map<String, FieldAccessor>> CACHE = new ClassValue<Map<String, FieldAccessor>>() {
+        @Override
+        protected Map<String, FieldAccessor> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private final String name;
+    private final Class<?> type;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    private FieldAccessor(String name, Class<?> type, MethodHandle getter, MethodHandle setter) {
+        this.name = name;
+        this.type = type;
+        this.getter = getter.asType(GENERIC_GETTER);
+        this.setter = (setter == null) ? null : setter.asType(GENERIC_SETTER);
+    }
+
+    /**
+     * @return the (cached) accessor for the given property of the given class
+     * @throws IllegalArgumentException if the class has no such property
+     */
+    public static FieldAccessor of(Class<?> dataClass, String name) {
+        return CACHE.get(dataClass).computeIfAbsent(name, n -> resolve(dataClass, n));
+    }
+
+    private static FieldAccessor resolve(Class<?> dataClass, String name) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Field publicField = getPublicField(dataClass, name);
+            if(publicField != null) {
+                return fromField(lookup, publicField);
+            }
+            Method getterMethod = findGetter(dataClass, name);
+            if(getterMethod != null) {
+                Class<?> type = getterMethod.getReturnType();
+                Method setterMethod = findMethod(dataClass, "set" + capitalize(name), type);
+                MethodHandle setter = (setterMethod == null) ? null : lookup.unreflect(accessible(setterMethod));
+                return new FieldAccessor(name, type, lookup.unreflect(accessible(getterMethod)), setter);
+            }
+            for(Class<?> cls = dataClass; cls != null; cls = cls.getSuperclass()) {
+                try {
+                    return fromField(lookup, cls.getDeclaredField(name));
+                } catch (NoSuchFieldException e) {
+                    // look in the superclass
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access field: " + name, e);
+        }
+        throw new IllegalArgumentException("Unknown field: " + name);
+    }
+
+    private static FieldAccessor fromField(MethodHandles.Lookup lookup, Field field) throws IllegalAccessException {
+        accessible(field);
+        MethodHandle setter = Modifier.isFinal(field.getModifiers()) ? null : lookup.unreflectSetter(field);
+        return new FieldAccessor(field.getName(), field.getType(), lookup.unreflectGetter(field), setter);
+    }
+
+    private static Field getPublicField(Class<?> dataClass, String name) {
+        try {
+            return dataClass.getField(name);
+        } catch (NoSuchFieldException e) {
+            return null;
+        }
+    }
+
+    private static Method findGetter(Class<?> dataClass, String name) {
+        Method getter = findMethod(dataClass, "get" + capitalize(name));
+        if(getter == null) {
+            getter = findMethod(dataClass, "is" + capitalize(name));
+            if(getter != null && getter.getReturnType() != boolean.class && getter.getReturnType() != Boolean.class) {
+                getter = null;
+            }
+        }
+        if(getter == null) {
+            getter = findMethod(dataClass, name);
+        }
+        return (getter == null || getter.getReturnType() == void.class) ? null : getter;
+    }
+
+    private static Method findMethod(Class<?> dataClass, String methodName, Class<?>... paramTypes) {
+        for(Class<?> cls = dataClass; cls != null && cls != Object.class; cls = cls.getSuperclass()) {
+            try {
+                Method method = cls.getDeclaredMethod(methodName, paramTypes);
+                if(!Modifier.isStatic(method.getModifiers())) return method;
+            } catch (NoSuchMethodException e) {
+                // look in the superclass
+            }
+        }
+        return null;
+    }
+
+    private static <A extends AccessibleObject> A accessible(A member) {
+        try {
+            member.setAccessible(true);
+        } catch (RuntimeException e) {
+            // keep the default access checks
+        }
+        return member;
+    }
+
+    private static String capitalize(String name) {
+        return name.isEmpty() ? name : Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public boolean isWritable() {
+        return setter != null;
+    }
+
+    public Object get(Object target) {
+        try {
+            return (Object) getter.invokeExact(target);
+        } catch (Throwable t) {
+            throw new IllegalArgumentException("Cannot retrieve value of " + name, t);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the property is read-only
+     */
+    public void set(Object target, Object value) {
+        if(setter == null) throw new IllegalStateException("Field " + name + " is read-only");
+        try {
+            setter.invokeExact(target, value);
+        } catch (Throwable t) {
+            throw new IllegalArgumentException("Cannot set value of " + name, t);
+        }
+    }
+}
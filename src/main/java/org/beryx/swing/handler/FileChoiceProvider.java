@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Provides the lines of a UTF-8 text file as choices. The file is streamed for each request,
+ * so it is never loaded into memory.
+ */
+public class FileChoiceProvider implements ChoiceProvider {
+    private final Path path;
+
+    public FileChoiceProvider(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public List<String> getChoices(String prefix, int maxChoices) throws IOException {
+        List<String> choices = new ArrayList<>();
+        try(BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while(choices.size() < maxChoices && (line = reader.readLine()) != null) {
+                if(Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Reading choices from " + path + " interrupted");
+                }
+                if(startsWithIgnoreCase(line, prefix)) {
+                    choices.add(line);
+                }
+            }
+        }
+        return choices;
+    }
+
+    private static boolean startsWithIgnoreCase(String text, String prefix) {
+        if(text.length() < prefix.length()) return false;
+        for(int i = 0; i < prefix.length(); i++) {
+            if(ChoiceIndex.fold(text.charAt(i)) != ChoiceIndex.fold(prefix.charAt(i))) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The matches of a choice filter, preceded by the previously entered values that match the same input, by decreasing frecency.
+ * <br>The matches are not sorted again: the promoted values are only removed from their original positions.
+ * Building the view scans the matches once, and only when some previously entered values match the input.
+ */
+class FrecencyRankedMatches implements ChoiceMatches {
+    private final ChoiceMatches matches;
+    private final List<String> promoted = new ArrayList<>();
+    /** The positions in {@link #matches} of the promoted values, in ascending order. */
+    private final int[] skipped;
+
+    /**
+     * @param frequentValues the previously entered values, by decreasing frecency
+     */
+    FrecencyRankedMatches(ChoiceMatches matches, ChoiceIndex frequentValues, MatchMode mode, String input) {
+        this.matches = matches;
+        String folded = ChoiceIndex.fold(input);
+        for(int pos = 0; pos < frequentValues.size(); pos++) {
+            if(isMatch(frequentValues, pos, mode, input, folded)) {
+                promoted.add(frequentValues.get(pos));
+            }
+        }
+        int[] positions = new int[promoted.size()];
+        int count = 0;
+        if(!promoted.isEmpty()) {
+            Set<String> promotedSet = new HashSet<>(promoted);
+            for(int i = 0; i < matches.size() && count < positions.length; i++) {
+                if(promotedSet.contains(matches.get(i))) {
+                    positions[count++] = i;
+                }
+            }
+        }
+        this.skipped = Arrays.copyOf(positions, count);
+    }
+
+    private static boolean isMatch(ChoiceIndex index, int pos, MatchMode mode, String input, String folded) {
+        switch(mode) {
+            case PREFIX: return index.startsWith(pos, input);
+            case SUBSTRING: return index.indexOf(pos, folded) >= 0;
+            default: return index.fuzzyScore(pos, folded) != Integer.MIN_VALUE;
+        }
+    }
+
+    @Override
+    public int size() {
+        return promoted.size() + matches.size() - skipped.length;
+    }
+
+    @Override
+    public String get(int i) {
+        if(i < promoted.size()) return promoted.get(i);
+        int pos = i - promoted.size();
+        for(int skippedPos : skipped) {
+            if(skippedPos > pos) break;
+            pos++;
+        }
+        return matches.get(pos);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.swing.SwingUtilities;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * The latency metrics of a {@link SwingHandler}, enabled by setting the property {@code custom.metrics.enabled}.
+ * <br>The metrics are:
+ * <ul>
+ *     <li>{@code key.choice}, {@code key.history}, {@code key.search}, {@code key.back}, {@code key.popup}: the time from the start of a key handler
+ *     until the event dispatch thread has processed the changes made by the handler</li>
+ *     <li>{@code task.<field>.dwell}: the time spent reading a field; {@code task.<field>.prepare}: the time spent preparing it</li>
+ *     <li>{@code history.load}, {@code history.save}: the durations of loading and saving the history,
+ *     with gauges for the number of values and bytes involved; {@code history.search}: the duration of a history search</li>
+ *     <li>{@code edt.lag}: the time an event waits in the queue of the event dispatch thread, probed every second</li>
+ * </ul>
+ * The metrics are exposed as an MXBean named {@code org.beryx.swing.handler:type=HandlerMetrics,name=<appName>,id=<n>},
+ * and a summary can be logged periodically, by setting the property {@code custom.metrics.summary.interval.s}.
+ * <br>The history is shared by the handlers of an application, so its metrics are recorded by the most recently created handler
+ * that is still open.
+ * <br>A disabled handler has no metrics object, so its hot paths neither allocate nor read the clock.
+ */
+public class HandlerMetrics implements HandlerMetricsMXBean {
+    private static final Logger logger = Logger.getLogger(HandlerMetrics.class.getName());
+
+    public static final String KEY_CHOICE = "key.choice";
+    public static final String KEY_HISTORY = "key.history";
+    public static final String KEY_SEARCH = "key.search";
+    public static final String KEY_BACK = "key.back";
+    public static final String KEY_POPUP = "key.popup";
+    public static final String HISTORY_LOAD = "history.load";
+    public static final String HISTORY_SAVE = "history.save";
+    public static final String HISTORY_SEARCH = "history.search";
+    public static final String EDT_LAG = "edt.lag";
+
+    public static final String HISTORY_LOADED_KEYS = "history.loaded.keys";
+    public static final String HISTORY_SAVED_VALUES = "history.saved.values";
+    public static final String HISTORY_SNAPSHOT_VALUES = "history.snapshot.values";
+    public static final String HISTORY_SNAPSHOT_BYTES = "history.snapshot.bytes";
+
+    private static final long EDT_PROBE_PERIOD_MILLIS = 1000;
+    private static final AtomicInteger instanceCount = new AtomicInteger();
+    private static ScheduledExecutorService scheduler;
+
+    private final String appName;
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, AtomicLong> gauges = new ConcurrentSkipListMap<>();
+    private final List<ScheduledFuture<?>> scheduledTasks = new ArrayList<>();
+    private ObjectName objectName;
+
+    public HandlerMetrics(String appName) {
+        this.appName = appName;
+    }
+
+    /**
+     * Registers the MXBean and starts probing the event dispatch thread.
+     * @param summaryIntervalSeconds the interval between two summaries in the log, or 0 for no summaries
+     */
+    public HandlerMetrics start(long summaryIntervalSeconds) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("org.beryx.swing.handler:type=HandlerMetrics,name=" + ObjectName.quote(appName)
+                    + ",id=" + instanceCount.incrementAndGet());
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            logger.warning("Cannot register the metrics of " + appName + ": " + e);
+            objectName = null;
+        }
+        LatencyHistogram edtLag = latency(EDT_LAG);
+        scheduledTasks.add(getScheduler().scheduleAtFixedRate(() -> {
+            long posted = System.nanoTime();
+            SwingUtilities.invokeLater(() -> edtLag.recordSince(posted));
+        }, EDT_PROBE_PERIOD_MILLIS, EDT_PROBE_PERIOD_MILLIS, TimeUnit.MILLISECONDS));
+        if(summaryIntervalSeconds > 0) {
+            scheduledTasks.add(getScheduler().scheduleAtFixedRate(() -> logger.info("Metrics of " + appName + ":\n" + getSummary()),
+                    summaryIntervalSeconds, summaryIntervalSeconds, TimeUnit.SECONDS));
+        }
+        return this;
+    }
+
+    /**
+     * Stops the periodic tasks and unregisters the MXBean.
+     */
+    public void stop() {
+        scheduledTasks.forEach(task -> task.cancel(false));
+        scheduledTasks.clear();
+        if(objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                logger.fine("Cannot unregister " + objectName + ": " + e);
+            }
+            objectName = null;
+        }
+    }
+
+    public LatencyHistogram latency(String metric) {
+        return latencies.computeIfAbsent(metric, k -> new LatencyHistogram());
+    }
+
+    public void setGauge(String gauge, long value) {
+        gauges.computeIfAbsent(gauge, k -> new AtomicLong()).set(value);
+    }
+
+    /**
+     * Records the time elapsed since the given {@link System#nanoTime()} value, once the event dispatch thread
+     * has processed the events queued so far, such as the repaint requests of a key handler.
+     */
+    public void recordRendered(LatencyHistogram histogram, long startNanos) {
+        SwingUtilities.invokeLater(() -> histogram.recordSince(startNanos));
+    }
+
+    @Override
+    public Map<String, LatencyHistogram.Summary> getLatencies() {
+        Map<String, LatencyHistogram.Summary> summaries = new LinkedHashMap<>();
+        latencies.forEach((name, histogram) -> summaries.put(name, histogram.getSummary()));
+        return summaries;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        gauges.forEach((name, value) -> values.put(name, value.get()));
+        return values;
+    }
+
+    @Override
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        latencies.forEach((name, histogram) -> {
+            if(histogram.getCount() > 0) sb.append(name).append(": ").append(histogram.getSummary()).append('\n');
+        });
+        gauges.forEach((name, value) -> sb.append(name).append(": ").append(value.get()).append('\n'));
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        latencies.values().forEach(LatencyHistogram::reset);
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if(scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "textio-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+}
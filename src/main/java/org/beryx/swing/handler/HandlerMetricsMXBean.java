@@ -0,0 +1,40 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link HandlerMetrics}.
+ */
+public interface HandlerMetricsMXBean {
+    /**
+     * @return the latency statistics, by metric name
+     */
+    Map<String, LatencyHistogram.Summary> getLatencies();
+
+    /**
+     * @return the latest value of each gauge, by name
+     */
+    Map<String, Long> getGauges();
+
+    /**
+     * @return a human-readable summary of all metrics, one per line
+     */
+    String getSummary();
+
+    void reset();
+}
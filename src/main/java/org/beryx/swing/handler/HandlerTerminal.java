@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.beryx.textio.ReadHandlerData;
+import org.beryx.textio.TerminalProperties;
+import org.beryx.textio.TextTerminal;
+import org.beryx.textio.swing.SwingTextTerminal;
+
+import java.util.function.Function;
+
+/**
+ * The operations of a text terminal needed by {@link SwingHandler}.
+ * <br>Use {@link #of(TextTerminal)} to obtain the implementation for a {@link SwingTextTerminal} or a {@link HeadlessTextTerminal}.
+ */
+public interface HandlerTerminal {
+    TerminalProperties<?> getProperties();
+
+    String getPartialInput();
+
+    void replaceInput(String text);
+
+    /**
+     * Registers a handler that is called on the reading thread when the given key stroke is pressed during a read.
+     * @return true, if the handler has been registered
+     */
+    boolean registerHandler(String keyStroke, Function<HandlerTerminal, ReadHandlerData> handler);
+
+    /**
+     * Removes the handler registered by this object for the given key stroke,
+     * unless another handler has been registered for it in the meantime.
+     */
+    void unregisterHandler(String keyStroke);
+
+    /**
+     * Adds a listener that is called after each change of the terminal content, on the thread that made the change.
+     */
+    void addChangeListener(Runnable listener);
+
+    void removeChangeListener(Runnable listener);
+
+    boolean setBookmark(String bookmark);
+
+    boolean resetToBookmark(String bookmark);
+
+    /**
+     * @return a new popup listing the choices, or null if the terminal cannot show popups
+     */
+    default ChoicePopup createChoicePopup(boolean background) {
+        return null;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the terminal is neither a {@link SwingTextTerminal} nor a {@link HeadlessTextTerminal}
+     */
+    static HandlerTerminal of(TextTerminal<?> terminal) {
+        if(terminal instanceof SwingTextTerminal) return new SwingHandlerTerminal((SwingTextTerminal)terminal);
+        if(terminal instanceof HeadlessTextTerminal) return ((HeadlessTextTerminal)terminal).asHandlerTerminal();
+        throw new IllegalArgumentException("Unsupported terminal: " + terminal.getClass().getName());
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.beryx.textio.AbstractTextTerminal;
+import org.beryx.textio.ReadHandlerData;
+import org.beryx.textio.ReadInterruptionData;
+import org.beryx.textio.ReadInterruptionException;
+import org.beryx.textio.ReadInterruptionStrategy;
+import org.beryx.textio.TerminalProperties;
+
+import javax.swing.KeyStroke;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * A text terminal without a window, which reads its input from a script.
+ * It can run the forms of a {@link SwingHandler} without a display, for example to load records in bulk or to benchmark a form.
+ * <br>Each line of the script is typed and followed by Enter. A key stroke enclosed in square brackets triggers the handler
+ * registered for it, and a handler that interrupts the read discards the rest of the line. For example:
+ * <pre>
+ * Ban[pressed UP]
+ * [ctrl U]
+ * </pre>
+ * types "Ban", replaces it with the first matching choice and accepts it, then goes back to the previous field.
+ * A backslash escapes the next character, so "\\[1]" types "[1]".
+ * Key strokes use the syntax of {@link KeyStroke#getKeyStroke(String)}. Key strokes without handlers are ignored.
+ * <br>The output is recorded, unless {@link #withOutputRecorded(boolean) disabled}.
+ * Reading after the end of the script throws an {@link IllegalStateException}.
+ */
+public class HeadlessTextTerminal extends AbstractTextTerminal<HeadlessTextTerminal> {
+    private static final Logger logger = Logger.getLogger(HeadlessTextTerminal.class.getName());
+
+    private final Map<KeyStroke, Function<HeadlessTextTerminal, ReadHandlerData>> handlers = new HashMap<>();
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+    private final Map<String, Integer> bookmarks = new HashMap<>();
+    private final Deque<Iterator<String>> script = new ArrayDeque<>();
+    private final StringBuilder output = new StringBuilder();
+    private boolean outputRecorded = true;
+    private String partialInput = "";
+    private String savedInput = "";
+
+    /**
+     * Appends lines to the script.
+     */
+    public HeadlessTextTerminal addInput(String... lines) {
+        return addScript(Arrays.asList(lines).iterator());
+    }
+
+    /**
+     * Appends the lines provided by the given iterator to the script. The lines are retrieved only when they are needed,
+     * so the script can be read from a large file or generated on the fly.
+     */
+    public synchronized HeadlessTextTerminal addScript(Iterator<String> lines) {
+        script.add(lines);
+        return this;
+    }
+
+    public synchronized boolean hasMoreInput() {
+        return script.stream().anyMatch(Iterator::hasNext);
+    }
+
+    private synchronized String nextLine() {
+        while(!script.isEmpty()) {
+            Iterator<String> lines = script.peek();
+            if(lines.hasNext()) return lines.next();
+            script.poll();
+        }
+        return null;
+    }
+
+    public HeadlessTextTerminal withOutputRecorded(boolean outputRecorded) {
+        this.outputRecorded = outputRecorded;
+        if(!outputRecorded) output.setLength(0);
+        return this;
+    }
+
+    public String getOutput() {
+        return output.toString();
+    }
+
+    @Override
+    public String read(boolean masking) {
+        setPartialInput(savedInput);
+        savedInput = "";
+        String line = nextLine();
+        if(line == null) throw new IllegalStateException("The script has no more input.");
+        StringBuilder text = new StringBuilder();
+        for(int pos = 0; pos < line.length(); pos++) {
+            char ch = line.charAt(pos);
+            int end = (ch == '[') ? line.indexOf(']', pos) : -1;
+            if(end < 0) {
+                if(ch == '\\' && pos + 1 < line.length()) ch = line.charAt(++pos);
+                text.append(ch);
+                continue;
+            }
+            String keyStroke = line.substring(pos + 1, end);
+            pos = end;
+            if(text.length() > 0) {
+                setPartialInput(partialInput + text);
+                text.setLength(0);
+            }
+            pressKey(keyStroke);
+        }
+        setPartialInput(partialInput + text);
+        String input = partialInput;
+        partialInput = "";
+        rawPrint(masking ? input.replaceAll(".", "*") : input);
+        println();
+        return input;
+    }
+
+    /**
+     * @throws ReadInterruptionException if the handler of the key stroke interrupts the read
+     */
+    private void pressKey(String keyStroke) {
+        KeyStroke ks = KeyStroke.getKeyStroke(keyStroke);
+        Function<HeadlessTextTerminal, ReadHandlerData> handler = (ks == null) ? null : handlers.get(ks);
+        if(handler == null) {
+            logger.fine("No handler registered for " + keyStroke);
+            return;
+        }
+        ReadHandlerData handlerData = handler.apply(this);
+        if(handlerData.getAction() != ReadInterruptionStrategy.Action.CONTINUE) {
+            String input = partialInput;
+            partialInput = "";
+            if(handlerData.getAction() == ReadInterruptionStrategy.Action.RESTART) {
+                savedInput = input;
+            }
+            throw new ReadInterruptionException(ReadInterruptionData.from(handlerData, input), input);
+        }
+    }
+
+    @Override
+    public void rawPrint(String message) {
+        if(outputRecorded) output.append(message);
+    }
+
+    @Override
+    public void println() {
+        if(outputRecorded) output.append('\n');
+    }
+
+    @Override
+    public boolean registerHandler(String keyStroke, Function<HeadlessTextTerminal, ReadHandlerData> handler) {
+        KeyStroke ks = KeyStroke.getKeyStroke(keyStroke);
+        if(ks == null) {
+            logger.warning("Invalid keyStroke: " + keyStroke);
+            return false;
+        }
+        handlers.put(ks, handler);
+        return true;
+    }
+
+    @Override
+    public boolean setBookmark(String bookmark) {
+        bookmarks.put(bookmark, output.length());
+        return true;
+    }
+
+    @Override
+    public boolean resetToBookmark(String bookmark) {
+        Integer length = bookmarks.get(bookmark);
+        if(length == null) return false;
+        if(length <= output.length()) output.setLength(length);
+        return true;
+    }
+
+    public String getPartialInput() {
+        return partialInput;
+    }
+
+    public void replaceInput(String text) {
+        setPartialInput(text);
+    }
+
+    private void setPartialInput(String text) {
+        if(text.equals(partialInput)) return;
+        partialInput = text;
+        changeListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Adds a listener that is called after each change of the partial input.
+     */
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(Runnable listener) {
+        changeListeners.remove(listener);
+    }
+
+    HandlerTerminal asHandlerTerminal() {
+        return new HandlerTerminal() {
+            private final Map<String, Function<HeadlessTextTerminal, ReadHandlerData>> registered = new HashMap<>();
+
+            @Override
+            public TerminalProperties<?> getProperties() {
+                return HeadlessTextTerminal.this.getProperties();
+            }
+
+            @Override
+            public String getPartialInput() {
+                return partialInput;
+            }
+
+            @Override
+            public void replaceInput(String text) {
+                HeadlessTextTerminal.this.replaceInput(text);
+            }
+
+            @Override
+            public boolean registerHandler(String keyStroke, Function<HandlerTerminal, ReadHandlerData> handler) {
+                Function<HeadlessTextTerminal, ReadHandlerData> terminalHandler = t -> handler.apply(this);
+                if(!HeadlessTextTerminal.this.registerHandler(keyStroke, terminalHandler)) return false;
+                registered.put(keyStroke, terminalHandler);
+                return true;
+            }
+
+            @Override
+            public void unregisterHandler(String keyStroke) {
+                Function<HeadlessTextTerminal, ReadHandlerData> handler = registered.remove(keyStroke);
+                if(handler != null) {
+                    handlers.remove(KeyStroke.getKeyStroke(keyStroke), handler);
+                }
+            }
+
+            @Override
+            public void addChangeListener(Runnable listener) {
+                HeadlessTextTerminal.this.addChangeListener(listener);
+            }
+
+            @Override
+            public void removeChangeListener(Runnable listener) {
+                HeadlessTextTerminal.this.removeChangeListener(listener);
+            }
+
+            @Override
+            public boolean setBookmark(String bookmark) {
+                return HeadlessTextTerminal.this.setBookmark(bookmark);
+            }
+
+            @Override
+            public boolean resetToBookmark(String bookmark) {
+                return HeadlessTextTerminal.this.resetToBookmark(bookmark);
+            }
+        };
+    }
+}
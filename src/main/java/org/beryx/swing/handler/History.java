@@ -15,56 +15,1093 @@
  */
 package org.beryx.swing.handler;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
-public class History {
+/**
+ * Stores the values previously entered for each key.
+ * <br>The history is persisted in two files in the user's home directory:
+ * <ul>
+ *     <li>{@code textio-<appName>.history}: a compacted binary snapshot, with an index of its keys</li>
+ *     <li>{@code textio-<appName>.history.journal}: an append-only log of the values added since the last compaction</li>
+ * </ul>
+ * The journal starts with a header line {@code #<id>}, followed by one {@code addValue} event per line:
+ * {@code timestamp TAB key TAB value}. {@link #save()} only appends the new events to the journal. When the journal grows too large,
+ * it is folded into a new snapshot, which is written to a temporary file and atomically renamed.
+ * The snapshot records the id of the journal it includes, so a journal left behind by an interrupted compaction is not replayed again.
+ * A partially written last line (for example, after a crash) is ignored, and it is truncated before new events are appended.
+ * A snapshot that cannot be read is moved aside to {@code textio-<appName>.history.corrupt}, and it is never compacted over
+ * during the session, so that an I/O error does not turn into the loss of the history.
+ * <br>For each value, the history also counts its uses, so that the values can be ranked by frecency
+ * (see {@link #getFrequentValues(String)}). The snapshot stores the counts, and each journal event counts as one use.
+ * <br>Nothing is read when the history is created. The key index of the snapshot and the journal are read on first use,
+ * and the values of a key are read from the snapshot only when the key is first accessed.
+ * <br>A history stored in the legacy {@code textio-<appName>.properties} format is migrated transparently.
+ * <br>The history is bounded: each key keeps at most {@link #withMaxValuesPerKey(int) maxValuesPerKey} values,
+ * the whole history at most {@link #withMaxValues(int) maxValues} values, and values not used
+ * for longer than {@link #withMaxAge(long) maxAge} are dropped. The least recently used values are evicted first.
+ * The limit per key is enforced when a value is added. The global limit and the maximum age are enforced lazily,
+ * when the history is saved or read, so adding a value takes constant time and never waits for other keys.
+ * The global limit applies to the keys loaded so far, and to the whole history when the snapshot is compacted.
+ * <br>A history can be shared by several handlers of the same application: {@link #acquire(String)} returns
+ * the instance registered for the application name, and {@link #release()} saves it when it is no longer used.
+ * The history is thread-safe. Updates of different keys do not contend with each other, and only one thread
+ * at a time writes to the files, persisting all the values added by the other threads in the same write.
+ * <br>With a {@link #withSaveDelay(long) save delay}, {@link #requestSave()} returns immediately and the values are written
+ * by a background thread, once the delay has elapsed without new requests. Pending values are flushed by {@link #flush()},
+ * by {@link #close()} and, within a bounded time, when the JVM shuts down.
+ */
+public class History implements AutoCloseable {
     private static final Logger logger = Logger.getLogger(History.class.getName());
 
+    private static final int MIN_COMPACTION_THRESHOLD = 1000;
+    /** The search index is rebuilt when it holds more than twice as many entries as the history, or this number. */
+    private static final int MIN_SEARCH_INDEX_REBUILD_SIZE = 1000;
+
+    private static final int SNAPSHOT_MAGIC = 0x54584849; // "TXHI"
+    private static final int SNAPSHOT_VERSION = 1;
+
+    public static final int DEFAULT_MAX_VALUES_PER_KEY = 100;
+    public static final int DEFAULT_MAX_VALUES = 10_000;
+    public static final long DEFAULT_SAVE_DELAY_MILLIS = 500;
+    public static final long FRECENCY_HALF_LIFE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    private static final long SHUTDOWN_FLUSH_TIMEOUT_MILLIS = 2000;
+
+    private static final Map<String, History> registry = new HashMap<>();
+    private static ScheduledExecutorService writer;
+    private static ExecutorService indexer;
+    private static final Set<History> backgroundHistories = ConcurrentHashMap.newKeySet();
+
     private final String appName;
-    private final Map<String, List<String>> history = new HashMap<>();
+    private int refCount;
+    /** Each list is guarded by its own monitor. */
+    private final Map<String, MruList> history = new ConcurrentHashMap<>();
+    private final AtomicInteger totalSize = new AtomicInteger();
+    private volatile int maxValuesPerKey = DEFAULT_MAX_VALUES_PER_KEY;
+    private volatile int maxValues = DEFAULT_MAX_VALUES;
+    private volatile long maxAgeMillis;
+    /** Serializes the evictions. It is never taken when a value is added, and readers never wait for it. */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Object saveLock = new Object();
+    private final Queue<PendingEvent> pendingEvents = new ConcurrentLinkedQueue<>();
+    /** Numbers the pending events. A key's events are numbered while holding the monitor of its list, so they are numbered in order. */
+    private final AtomicLong eventSequence = new AtomicLong();
+    private volatile long saveDelayMillis = -1;
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+    /** The metrics attached by the users of the history, the most recent last. Guarded by its own monitor. */
+    private final List<HandlerMetrics> attachedMetrics = new ArrayList<>();
+    /** The most recently attached metrics, or null. */
+    private volatile HandlerMetrics metrics;
+    private int journalEventCount;
+    private int snapshotEventCount;
+    private boolean compactionNeeded;
+    /** The length of the journal without its incomplete last line, or -1 if its last line is complete. */
+    private long journalCompleteLength = -1;
+    /** The id of the journal file, or 0 if it has no header (or does not exist). */
+    private long journalId;
+    /** The id of the journal included in the snapshot, or 0. */
+    private long snapshotJournalId;
+    /** True, if the journal file was already folded into the snapshot, so it must be replaced instead of appended to. */
+    private boolean journalIncluded;
+    /** True, if the snapshot could not be read, so it must not be replaced by a compaction during this session. */
+    private volatile boolean snapshotReadOnly;
+    // the search index is built in the background, then updated by addValue(); guarded by searchLock
+    private final Object searchLock = new Object();
+    private TrigramIndex searchIndex;
+    private boolean searchIndexBuilding;
+    /** The values added while the search index is being built, as {key, value} pairs. */
+    private final List<String[]> searchIndexPendingValues = new ArrayList<>();
+    private volatile Executor searchIndexExecutor;
+
+    private volatile boolean initialized;
+    /** The keys not loaded yet, with the {offset, valueCount} of their block in the snapshot. */
+    private final Map<String, long[]> snapshotIndex = new ConcurrentHashMap<>();
+    /** The journal events of the keys not loaded yet. */
+    private final Map<String, List<Event>> journalEvents = new ConcurrentHashMap<>();
+
+    private static class Event {
+        final long timestamp;
+        final String value;
+
+        Event(long timestamp, String value) {
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+    }
+
+    /** An event not written to the journal yet. */
+    private static class PendingEvent {
+        final long sequence;
+        final String name;
+        final String line;
+
+        PendingEvent(long sequence, String name, String line) {
+            this.sequence = sequence;
+            this.name = name;
+            this.line = line;
+        }
+    }
+
+    @FunctionalInterface
+    private interface EventConsumer {
+        void accept(String name, String value, long timestamp);
+    }
 
     public History(String appName) {
         this.appName = appName;
+    }
+
+    /**
+     * @return the history shared by all the users of the given application name. Each call must be paired with a call to {@link #release()}.
+     */
+    public static History acquire(String appName) {
+        return acquire(appName, history -> {});
+    }
+
+    /**
+     * Like {@link #acquire(String)}, but the configurator is applied to the history when it is created,
+     * so that the first user sets the limits of the shared history. Later users do not change them.
+     */
+    public static History acquire(String appName, Consumer<History> configurator) {
+        synchronized(registry) {
+            History history = registry.get(appName);
+            if(history == null) {
+                history = new History(appName);
+                configurator.accept(history);
+                registry.put(appName, history);
+            }
+            history.refCount++;
+            return history;
+        }
+    }
+
+    /**
+     * Releases a history obtained by {@link #acquire(String)}. When the last user releases it, the history is saved and unregistered.
+     */
+    public void release() {
+        synchronized(registry) {
+            if(refCount <= 0) throw new IllegalStateException("History " + appName + " is not acquired");
+            if(--refCount > 0) return;
+            registry.remove(appName, this);
+            // close while holding the registry lock, so that a new instance for the same application reads the saved state
+            close();
+        }
+    }
+
+    private void ensureInitialized() {
+        if(initialized) return;
+        synchronized(this) {
+            if(!initialized) {
+                initialize();
+                initialized = true;
+            }
+        }
+    }
+
+    private void initialize() {
+        HandlerMetrics metrics = this.metrics;
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        doInitialize();
+        if(metrics != null) {
+            metrics.latency(HandlerMetrics.HISTORY_LOAD).recordSince(start);
+            metrics.setGauge(HandlerMetrics.HISTORY_LOADED_KEYS, snapshotIndex.size() + journalEvents.size() + history.size());
+        }
+    }
+
+    private void doInitialize() {
+        Path snapshotPath = getSnapshotPath();
+        Path journalPath = getJournalPath();
+        if(Files.exists(snapshotPath) || Files.exists(journalPath)) {
+            readSnapshotIndex(snapshotPath);
+            journalId = readJournalId(journalPath);
+            if(journalId != 0 && journalId == snapshotJournalId) {
+                logger.fine("The journal " + journalPath + " is already included in the snapshot.");
+                journalIncluded = true;
+                return;
+            }
+            journalEventCount = replay(journalPath, (name, value, timestamp) ->
+                    journalEvents.computeIfAbsent(name, k -> new ArrayList<>()).add(new Event(timestamp, value)));
+            journalCompleteLength = getCompleteLength(journalPath);
+        } else {
+            compactionNeeded = loadLegacyProperties();
+        }
+    }
+
+    private boolean loadLegacyProperties() {
+        File legacyFile = new File(getPropFilePath());
+        if(!legacyFile.isFile()) {
+            logger.fine("History file not found. Initializing empty history.");
+            return false;
+        }
         Properties props = new Properties();
-        try {
-            props.load(new FileInputStream(getPropFilePath()));
+        try(InputStream in = new FileInputStream(legacyFile)) {
+            props.load(in);
         } catch (IOException e) {
-            logger.fine("History file not found. Initializing empty history.");
+            logger.warning("Cannot read legacy history file " + legacyFile + ": " + e);
+            return false;
         }
+        long now = System.currentTimeMillis();
         props.entrySet().forEach(entry -> {
             String[] values = entry.getValue().toString().split("\\s*,\\s*");
-            history.put(entry.getKey().toString(), new ArrayList<>(Arrays.asList(values)));
+            for(int i = values.length - 1; i >= 0; i--) {
+                applyValue(loadedValues(entry.getKey().toString()), values[i], now);
+            }
         });
+        logger.info("Migrating history from " + legacyFile);
+        return true;
+    }
+
+    /**
+     * Reads the key index of the snapshot. The index follows the value blocks, and its offset is stored in the last 8 bytes of the file.
+     * <br>If the snapshot cannot be read, none of its content is used: in particular, the journal is replayed even if the header
+     * of the snapshot claims to include it. The snapshot is moved aside and kept read-only for the session.
+     */
+    private void readSnapshotIndex(Path path) {
+        if(!Files.exists(path)) return;
+        Map<String, long[]> index = new HashMap<>();
+        long includedJournalId;
+        int eventCount = 0;
+        try(RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+            if(file.length() < 24 || file.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a history snapshot");
+            }
+            int version = file.readInt();
+            if(version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported snapshot version: " + version);
+            }
+            includedJournalId = file.readLong();
+            file.seek(file.length() - 8);
+            file.seek(file.readLong());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel())));
+            int keyCount = in.readInt();
+            for(int i = 0; i < keyCount; i++) {
+                String name = readString(in);
+                long offset = in.readLong();
+                int valueCount = in.readInt();
+                index.put(name, new long[] {offset, valueCount});
+                eventCount += valueCount;
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Cannot read history file " + path + ": " + e);
+            snapshotReadOnly = true;
+            moveAside(path);
+            return;
+        }
+        snapshotIndex.putAll(index);
+        snapshotJournalId = includedJournalId;
+        snapshotEventCount = eventCount;
+    }
+
+    /** Moves an unreadable snapshot to {@code <name>.corrupt}, so that it can be inspected or recovered. */
+    private static void moveAside(Path path) {
+        Path corruptPath = path.resolveSibling(path.getFileName() + ".corrupt");
+        try {
+            Files.move(path, corruptPath, StandardCopyOption.REPLACE_EXISTING);
+            logger.warning("The unreadable history file was moved to " + corruptPath);
+        } catch (IOException e) {
+            logger.warning("Cannot move the unreadable history file " + path + ": " + e);
+        }
+    }
+
+    private void loadSnapshotBlock(MruList values, long offset, long valueCount) {
+        Path path = getSnapshotPath();
+        try(RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+            file.seek(offset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel())));
+            for(long i = 0; i < valueCount; i++) {
+                long timestamp = in.readLong();
+                int count = in.readInt();
+                applyValue(values, readString(in), timestamp, count);
+            }
+        } catch (IOException | RuntimeException e) {
+            // the values of the key are incomplete, so the snapshot must not be replaced by one that lacks them
+            logger.warning("Cannot read history file " + path + ": " + e);
+            snapshotReadOnly = true;
+        }
     }
 
+    private int replay(Path path, EventConsumer consumer) {
+        if(!Files.exists(path)) return 0;
+        int count = 0;
+        try(BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while((c = reader.read()) >= 0) {
+                if(c != '\n') {
+                    line.append((char)c);
+                    continue;
+                }
+                if(line.length() > 0 && line.charAt(0) == '#') {
+                    // the header
+                    line.setLength(0);
+                    continue;
+                }
+                String[] fields = line.toString().split("\t", -1);
+                line.setLength(0);
+                long timestamp;
+                try {
+                    timestamp = (fields.length == 3) ? Long.parseLong(fields[0]) : -1;
+                } catch (NumberFormatException e) {
+                    timestamp = -1;
+                }
+                if(timestamp < 0) {
+                    logger.warning("Ignoring malformed history entry in " + path);
+                    continue;
+                }
+                consumer.accept(unescape(fields[1]), unescape(fields[2]), timestamp);
+                count++;
+            }
+            if(line.length() > 0) {
+                logger.warning("Ignoring incomplete history entry at the end of " + path);
+            }
+        } catch (IOException e) {
+            logger.warning("Cannot read history file " + path + ": " + e);
+        }
+        return count;
+    }
+
+    /**
+     * @return the id in the header of the journal, or 0 if the journal does not exist or has no header
+     */
+    private static long readJournalId(Path path) {
+        if(!Files.exists(path)) return 0;
+        try(BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            return (header != null && header.startsWith("#")) ? Long.parseLong(header.substring(1)) : 0;
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long newJournalId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while(id == 0);
+        return id;
+    }
+
+    /**
+     * @return the length of the file up to its last newline, or -1 if the file does not exist, is empty or ends with a newline
+     */
+    private static long getCompleteLength(Path path) {
+        if(!Files.exists(path)) return -1;
+        try(RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+            long length = file.length();
+            byte[] buf = new byte[8192];
+            for(long end = length; end > 0; ) {
+                int len = (int)Math.min(buf.length, end);
+                file.seek(end - len);
+                file.readFully(buf, 0, len);
+                for(int i = len - 1; i >= 0; i--) {
+                    if(buf[i] == '\n') {
+                        long completeLength = end - len + i + 1;
+                        return (completeLength == length) ? -1 : completeLength;
+                    }
+                }
+                end -= len;
+            }
+            return (length == 0) ? -1 : 0;
+        } catch (IOException e) {
+            logger.warning("Cannot read history file " + path + ": " + e);
+            return -1;
+        }
+    }
+
+    /**
+     * Sets the maximum number of values kept for each key. A value &lt;= 0 means no limit.
+     * <br>Changing a limit evicts the values that exceed it, so the limits of a shared history should be set
+     * when it is {@link #acquire(String, Consumer) acquired}.
+     */
+    public History withMaxValuesPerKey(int maxValuesPerKey) {
+        if(this.maxValuesPerKey == maxValuesPerKey) return this;
+        this.maxValuesPerKey = maxValuesPerKey;
+        evict();
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of values kept in the whole history. A value &lt;= 0 means no limit.
+     */
+    public History withMaxValues(int maxValues) {
+        if(this.maxValues == maxValues) return this;
+        this.maxValues = maxValues;
+        evict();
+        return this;
+    }
+
+    /**
+     * Sets the maximum time a value is kept after its last use. A value &lt;= 0 means no limit.
+     */
+    public History withMaxAge(long maxAgeMillis) {
+        if(this.maxAgeMillis == maxAgeMillis) return this;
+        this.maxAgeMillis = maxAgeMillis;
+        evict();
+        return this;
+    }
+
+    /**
+     * Records the load, save and search times of this history in the given metrics.
+     * <br>A shared history records its times in the most recently attached metrics, until they are {@link #detachMetrics(HandlerMetrics) detached}.
+     * Then it records them in the previously attached ones, if any.
+     */
+    public History attachMetrics(HandlerMetrics metrics) {
+        synchronized(attachedMetrics) {
+            attachedMetrics.add(metrics);
+            this.metrics = metrics;
+        }
+        return this;
+    }
+
+    /**
+     * Stops recording the times of this history in the given metrics.
+     */
+    public void detachMetrics(HandlerMetrics metrics) {
+        synchronized(attachedMetrics) {
+            attachedMetrics.remove(metrics);
+            this.metrics = attachedMetrics.isEmpty() ? null : attachedMetrics.get(attachedMetrics.size() - 1);
+        }
+    }
+
+    /**
+     * Enables background saving: {@link #requestSave()} schedules a save after the given delay, instead of saving immediately.
+     * Requests made before the scheduled save runs are coalesced into it. A negative delay disables background saving.
+     */
+    public History withSaveDelay(long saveDelayMillis) {
+        this.saveDelayMillis = saveDelayMillis;
+        if(saveDelayMillis >= 0) {
+            backgroundHistories.add(this);
+        } else {
+            backgroundHistories.remove(this);
+        }
+        return this;
+    }
+
+    /**
+     * @return the values previously entered for the given key, most recent first.
+     * The returned list is an immutable snapshot, so its indexes stay valid while new values are added.
+     */
     public List<String> getValues(String name) {
-        return history.getOrDefault(name, new ArrayList<>());
+        ensureInitialized();
+        if(!history.containsKey(name) && !snapshotIndex.containsKey(name) && !journalEvents.containsKey(name)) {
+            return Collections.emptyList();
+        }
+        loadedValues(name);
+        // a reader does not wait for an eviction in progress on another thread
+        if(maxValues > 0 && totalSize.get() > maxValues && evictionLock.tryLock()) {
+            try {
+                doEvict();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        MruList values = history.get(name);
+        if(values == null) return Collections.emptyList();
+        synchronized(values) {
+            return values.values();
+        }
+    }
+
+    /**
+     * @return the values of the given key, by decreasing frecency: the number of uses,
+     * halved for each {@link #FRECENCY_HALF_LIFE_MILLIS half-life} elapsed since the last use
+     */
+    public List<String> getFrequentValues(String name) {
+        if(getValues(name).isEmpty()) return Collections.emptyList();
+        MruList values = history.get(name);
+        if(values == null) return Collections.emptyList();
+        synchronized(values) {
+            return values.frequentValues(System.currentTimeMillis(), FRECENCY_HALF_LIFE_MILLIS);
+        }
     }
 
     public void addValue(String name, String value){
-        history.compute(name, (v,list) -> {
-            List<String> l = (list == null) ? new ArrayList<>() : list;
-            l.removeAll(Collections.singleton(value));
-            l.add(0, value);
-            return l;
+        ensureInitialized();
+        long now = System.currentTimeMillis();
+        String line = formatEvent(now, name, value);
+        while(true) {
+            MruList values = loadedValues(name);
+            synchronized(values) {
+                // the list may have been dropped by a concurrent eviction, after becoming empty
+                if(history.get(name) != values) continue;
+                applyValue(values, value, now);
+                pendingEvents.add(new PendingEvent(eventSequence.incrementAndGet(), name, line));
+            }
+            break;
+        }
+        synchronized(searchLock) {
+            if(searchIndexBuilding) {
+                searchIndexPendingValues.add(new String[] {name, value});
+            }
+            if(searchIndex != null) {
+                searchIndex.add(name, value);
+                // the index also keeps the entries discarded or evicted since it was built
+                if(searchIndex.entryCount() > 2 * Math.max(totalSize.get(), MIN_SEARCH_INDEX_REBUILD_SIZE)) {
+                    buildSearchIndexInBackground();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts building the search index in the background, unless it is already built.
+     * Building the index loads all keys.
+     */
+    public void prepareSearch() {
+        synchronized(searchLock) {
+            if(searchIndex == null) buildSearchIndexInBackground();
+        }
+    }
+
+    /**
+     * Searches the previously entered values containing the given text, ignoring case.
+     * <br>The search uses a trigram index, which is built in the background (see {@link #prepareSearch()})
+     * and then kept up to date as values are added. Until the index is ready, the values of the loaded keys are scanned.
+     * @param name the key of the values to search, or null to search the values of all keys
+     * @return at most maxResults distinct values, most recently used first
+     */
+    public List<String> search(String text, String name, int maxResults) {
+        HandlerMetrics metrics = this.metrics;
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        List<String> results = null;
+        synchronized(searchLock) {
+            if(searchIndex != null) {
+                results = searchIndex.search(text, name, maxResults, this::contains);
+            } else {
+                buildSearchIndexInBackground();
+            }
+        }
+        if(results == null) {
+            results = scan(text, name, maxResults);
+        }
+        if(metrics != null) metrics.latency(HandlerMetrics.HISTORY_SEARCH).recordSince(start);
+        return results;
+    }
+
+    /**
+     * Searches the values of the given key, or of all loaded keys, without the index.
+     * At most maxResults values are taken from each key, starting with the most recently used ones.
+     */
+    private List<String> scan(String text, String name, int maxResults) {
+        String folded = ChoiceIndex.fold(text);
+        List<String> results = new ArrayList<>();
+        if(name != null) {
+            for(String value : getValues(name)) {
+                if(results.size() == maxResults) break;
+                if(ChoiceIndex.containsFolded(value, folded)) results.add(value);
+            }
+            return results;
+        }
+        List<Event> matches = new ArrayList<>();
+        for(MruList values : history.values()) {
+            synchronized(values) {
+                int count = 0;
+                for(String value : values.values()) {
+                    if(count == maxResults) break;
+                    if(ChoiceIndex.containsFolded(value, folded)) {
+                        matches.add(new Event(values.getUse(value).timestamp, value));
+                        count++;
+                    }
+                }
+            }
+        }
+        matches.sort(Comparator.comparingLong((Event event) -> event.timestamp).reversed());
+        Set<String> found = new HashSet<>();
+        for(Event match : matches) {
+            if(results.size() == maxResults) break;
+            if(found.add(match.value)) results.add(match.value);
+        }
+        return results;
+    }
+
+    /**
+     * Sets the executor that builds the search index, instead of the shared background thread.
+     */
+    History withSearchIndexExecutor(Executor executor) {
+        this.searchIndexExecutor = executor;
+        return this;
+    }
+
+    /** Must be called while holding the search lock. The current index, if any, is used until the new one is ready. */
+    private void buildSearchIndexInBackground() {
+        if(searchIndexBuilding) return;
+        searchIndexBuilding = true;
+        searchIndexPendingValues.clear();
+        Executor executor = searchIndexExecutor;
+        ((executor != null) ? executor : getIndexer()).execute(() -> {
+            TrigramIndex index = null;
+            try {
+                index = buildSearchIndex();
+            } catch (RuntimeException e) {
+                logger.warning("Cannot index history " + appName + ": " + e);
+            }
+            synchronized(searchLock) {
+                if(index != null) {
+                    for(String[] pending : searchIndexPendingValues) {
+                        index.add(pending[0], pending[1]);
+                    }
+                    searchIndex = index;
+                }
+                searchIndexPendingValues.clear();
+                searchIndexBuilding = false;
+            }
         });
     }
 
-    public void save() {
-        Properties props = new Properties();
-        history.entrySet().forEach(entry -> {
-            props.setProperty(entry.getKey(), entry.getValue().stream().collect(Collectors.joining(", ")));
+    /** The number of entries of the search index, including the discarded and evicted ones, or 0 if the index is not built. */
+    int getSearchIndexEntryCount() {
+        synchronized(searchLock) {
+            return (searchIndex == null) ? 0 : searchIndex.entryCount();
+        }
+    }
+
+    private boolean contains(String name, String value) {
+        MruList values = history.get(name);
+        if(values == null) return false;
+        synchronized(values) {
+            return values.contains(value);
+        }
+    }
+
+    /** Adds the values of all keys to a new index, in the order of their last use. */
+    private TrigramIndex buildSearchIndex() {
+        ensureInitialized();
+        for(String name : new ArrayList<>(snapshotIndex.keySet())) {
+            loadedValues(name);
+        }
+        for(String name : new ArrayList<>(journalEvents.keySet())) {
+            loadedValues(name);
+        }
+        List<Map.Entry<String, Event>> uses = new ArrayList<>();
+        for(Map.Entry<String, MruList> entry : history.entrySet()) {
+            MruList values = entry.getValue();
+            synchronized(values) {
+                for(Map.Entry<String, MruList.Use> use : values.eldestFirst()) {
+                    uses.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), new Event(use.getValue().timestamp, use.getKey())));
+                }
+            }
+        }
+        uses.sort(Comparator.comparingLong(use -> use.getValue().timestamp));
+        TrigramIndex index = new TrigramIndex();
+        for(Map.Entry<String, Event> use : uses) {
+            index.add(use.getKey(), use.getValue().value);
+        }
+        logger.fine(() -> "Indexed " + uses.size() + " history values for searching.");
+        return index;
+    }
+
+    /**
+     * @return the values of the given key, which are read from the snapshot and the journal when the key is first accessed
+     */
+    private MruList loadedValues(String name) {
+        return history.computeIfAbsent(name, k -> {
+            MruList values = new MruList();
+            long[] block = snapshotIndex.remove(name);
+            if(block != null) {
+                loadSnapshotBlock(values, block[0], block[1]);
+            }
+            List<Event> events = journalEvents.remove(name);
+            if(events != null) {
+                for(Event event : events) {
+                    applyValue(values, event.value, event.timestamp);
+                }
+            }
+            if(maxAgeMillis > 0) {
+                totalSize.addAndGet(-values.removeOlderThan(System.currentTimeMillis() - maxAgeMillis));
+            }
+            return values;
         });
+    }
+
+    private void applyValue(MruList values, String value, long timestamp) {
+        applyValue(values, value, timestamp, 1);
+    }
+
+    /** Must be called while holding the monitor of the list, unless the list is not yet visible to other threads. */
+    private void applyValue(MruList values, String value, long timestamp, int count) {
+        if(values.add(value, timestamp, count)) {
+            totalSize.incrementAndGet();
+        }
+        if(maxValuesPerKey > 0 && values.size() > maxValuesPerKey) {
+            values.removeEldest();
+            totalSize.decrementAndGet();
+        }
+    }
+
+    private void evict() {
+        evictionLock.lock();
         try {
-            props.store(new FileOutputStream(getPropFilePath()), "List of previous values");
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            doEvict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /** Must be called while holding the eviction lock. */
+    private void doEvict() {
+        long minTimestamp = (maxAgeMillis > 0) ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+        for(MruList values : history.values()) {
+            synchronized(values) {
+                totalSize.addAndGet(-values.removeOlderThan(minTimestamp));
+                while(maxValuesPerKey > 0 && values.size() > maxValuesPerKey) {
+                    values.removeEldest();
+                    totalSize.decrementAndGet();
+                }
+            }
+        }
+        if(maxValues > 0 && totalSize.get() > maxValues) {
+            evictEldest();
+        }
+        for(Map.Entry<String, MruList> entry : history.entrySet()) {
+            MruList values = entry.getValue();
+            synchronized(values) {
+                if(values.isEmpty()) history.remove(entry.getKey(), values);
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used values until the history respects the global limit.
+     * The keys are kept in a heap ordered by the timestamp of their eldest value, so each removal takes logarithmic time.
+     */
+    private void evictEldest() {
+        PriorityQueue<long[]> heap = new PriorityQueue<>(Comparator.comparingLong(entry -> entry[0]));
+        List<MruList> lists = new ArrayList<>(history.values());
+        for(int i = 0; i < lists.size(); i++) {
+            MruList values = lists.get(i);
+            synchronized(values) {
+                if(!values.isEmpty()) heap.add(new long[] {values.eldestTimestamp(), i});
+            }
+        }
+        while(totalSize.get() > maxValues && !heap.isEmpty()) {
+            long[] entry = heap.poll();
+            MruList values = lists.get((int)entry[1]);
+            synchronized(values) {
+                long timestamp = values.eldestTimestamp();
+                // the eldest value of the list may have been used again since the heap was built
+                if(timestamp == entry[0]) {
+                    values.removeEldest();
+                    totalSize.decrementAndGet();
+                    timestamp = values.eldestTimestamp();
+                }
+                if(!values.isEmpty()) {
+                    entry[0] = timestamp;
+                    heap.add(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the history, either immediately or, if a {@link #withSaveDelay(long) save delay} is configured, in the background.
+     */
+    public void requestSave() {
+        long delay = saveDelayMillis;
+        if(delay < 0) {
+            save();
+        } else if(saveScheduled.compareAndSet(false, true)) {
+            getWriter().schedule(this::backgroundSave, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void backgroundSave() {
+        // values added while saving will be written by a new request
+        saveScheduled.set(false);
+        try {
+            save();
+        } catch (RuntimeException e) {
+            logger.warning("Cannot save history " + appName + ": " + e);
+        }
+    }
+
+    /**
+     * Writes the pending values immediately, waiting for a background save in progress.
+     */
+    public void flush() {
+        save();
+    }
+
+    /**
+     * Flushes the pending values and disables background saving.
+     * A history obtained by {@link #acquire(String)} should be released instead, which closes it when its last user releases it.
+     */
+    @Override
+    public void close() {
+        withSaveDelay(-1);
+        flush();
+    }
+
+    private static synchronized ExecutorService getIndexer() {
+        if(indexer == null) {
+            indexer = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "textio-history-indexer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return indexer;
+    }
+
+    private static synchronized ScheduledExecutorService getWriter() {
+        if(writer == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "textio-history-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            writer = executor;
+            Runtime.getRuntime().addShutdownHook(new Thread(History::flushAtShutdown, "textio-history-shutdown"));
+        }
+        return writer;
+    }
+
+    /**
+     * Flushes the histories saved in the background. The writing thread is a daemon, so it would not delay the shutdown,
+     * and the shutdown waits at most {@link #SHUTDOWN_FLUSH_TIMEOUT_MILLIS} for the flush.
+     */
+    private static void flushAtShutdown() {
+        Thread flusher = new Thread(() -> {
+            for(History history : backgroundHistories) {
+                try {
+                    history.flush();
+                } catch (RuntimeException e) {
+                    logger.warning("Cannot save history " + history.appName + ": " + e);
+                }
+            }
+        }, "textio-history-flush");
+        flusher.setDaemon(true);
+        flusher.start();
+        try {
+            flusher.join(SHUTDOWN_FLUSH_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(flusher.isAlive()) {
+            logger.warning("History not saved within " + SHUTDOWN_FLUSH_TIMEOUT_MILLIS + " ms.");
+        }
+    }
+
+    /**
+     * Persists the values added since the last call. Only these values are written, except when a compaction is due.
+     * Concurrent calls are serialized, and each call writes the values added by all threads.
+     */
+    public void save() {
+        synchronized(saveLock) {
+            HandlerMetrics metrics = this.metrics;
+            long start = (metrics != null) ? System.nanoTime() : 0;
+            evict();
+            try {
+                List<String> events = new ArrayList<>();
+                for(PendingEvent event; (event = pendingEvents.poll()) != null; ) {
+                    events.add(event.line);
+                }
+                if(!events.isEmpty()) {
+                    appendToJournal(events);
+                    journalEventCount += events.size();
+                }
+                if(!snapshotReadOnly && (compactionNeeded || journalEventCount > Math.max(MIN_COMPACTION_THRESHOLD, snapshotEventCount))) {
+                    compact();
+                }
+                if(metrics != null) {
+                    metrics.latency(HandlerMetrics.HISTORY_SAVE).recordSince(start);
+                    metrics.setGauge(HandlerMetrics.HISTORY_SAVED_VALUES, events.size());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void appendToJournal(List<String> events) throws IOException {
+        File journalFile = getJournalPath().toFile();
+        // a journal already included in the snapshot, or without a complete header, is replaced by a new one
+        boolean newJournal = journalIncluded || !journalFile.exists() || journalCompleteLength == 0;
+        try(FileOutputStream out = new FileOutputStream(journalFile, !newJournal)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            if(newJournal) {
+                journalId = newJournalId();
+                journalIncluded = false;
+                writer.write("#" + journalId + "\n");
+            } else if(journalCompleteLength > 0) {
+                // drop the incomplete entry, instead of completing it with a newline
+                out.getChannel().truncate(journalCompleteLength);
+            }
+            journalCompleteLength = -1;
+            for(String event : events) {
+                writer.write(event);
+            }
+            writer.flush();
+            out.getChannel().force(false);
+        }
+    }
+
+    /**
+     * Writes the current state as a new snapshot and clears the journal.
+     * All keys are loaded first, so that the global limit is enforced on the whole history.
+     * If the process dies after the snapshot is renamed but before the journal is deleted,
+     * the id of the journal recorded in the snapshot prevents the journal from being replayed again.
+     * Values added during the compaction are still pending. Those already in the lists written to the snapshot are dropped
+     * from the pending events, so that the next save does not journal them again; the others are journaled by the next save.
+     */
+    private void compact() throws IOException {
+        for(String name : new ArrayList<>(snapshotIndex.keySet())) {
+            loadedValues(name);
+        }
+        for(String name : new ArrayList<>(journalEvents.keySet())) {
+            loadedValues(name);
+        }
+        if(snapshotReadOnly) return;
+        evict();
+
+        Path snapshotPath = getSnapshotPath();
+        Path tmpPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        int count = 0;
+        Map<String, Long> foldedSequences = new HashMap<>();
+        try(FileOutputStream fileOut = new FileOutputStream(tmpPath.toFile())) {
+            CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(fileOut));
+            DataOutputStream out = new DataOutputStream(counter);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(journalIncluded ? snapshotJournalId : journalId);
+            Map<String, long[]> blocks = new LinkedHashMap<>();
+            for(Map.Entry<String, MruList> entry : history.entrySet()) {
+                MruList values = entry.getValue();
+                synchronized(values) {
+                    // the events of this key numbered so far are included in its block
+                    foldedSequences.put(entry.getKey(), eventSequence.get());
+                    blocks.put(entry.getKey(), new long[] {counter.count, values.size()});
+                    for(Map.Entry<String, MruList.Use> value : values.eldestFirst()) {
+                        out.writeLong(value.getValue().timestamp);
+                        out.writeInt(value.getValue().count);
+                        writeString(out, value.getKey());
+                    }
+                    count += values.size();
+                }
+            }
+            long indexOffset = counter.count;
+            out.writeInt(blocks.size());
+            for(Map.Entry<String, long[]> entry : blocks.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeLong(entry.getValue()[0]);
+                out.writeInt((int)entry.getValue()[1]);
+            }
+            out.writeLong(indexOffset);
+            out.flush();
+            HandlerMetrics metrics = this.metrics;
+            if(metrics != null) {
+                metrics.setGauge(HandlerMetrics.HISTORY_SNAPSHOT_VALUES, count);
+                metrics.setGauge(HandlerMetrics.HISTORY_SNAPSHOT_BYTES, counter.count);
+            }
+            fileOut.getChannel().force(false);
+        }
+        try {
+            Files.move(tmpPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING);
         }
+        Files.deleteIfExists(getJournalPath());
+        pendingEvents.removeIf(event -> event.sequence <= foldedSequences.getOrDefault(event.name, 0L));
+        journalId = 0;
+        journalIncluded = false;
+        snapshotEventCount = count;
+        journalEventCount = 0;
+        journalCompleteLength = -1;
+        compactionNeeded = false;
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /** Strings are written as length-prefixed UTF-8, because {@link DataOutputStream#writeUTF(String)} is limited to 64 KB. */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String formatEvent(long timestamp, String name, String value) {
+        return timestamp + "\t" + escape(name) + "\t" + escape(value) + "\n";
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch(c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String s) {
+        if(s.indexOf('\\') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if(c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private Path getSnapshotPath() {
+        return Paths.get(System.getProperty("user.home"), "textio-" + appName + ".history");
+    }
+
+    private Path getJournalPath() {
+        return Paths.get(System.getProperty("user.home"), "textio-" + appName + ".history.journal");
     }
 
     private String getPropFilePath() {
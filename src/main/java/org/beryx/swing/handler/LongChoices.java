@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Integral choices, stored as primitive longs.
+ * <br>Ranges added with {@link #addRange(long, long, long)} are never materialized:
+ * membership is checked arithmetically and the displayed texts are computed on demand.
+ * <br>The distance between the bounds of a range may exceed {@link Long#MAX_VALUE}, so it is handled as an unsigned value.
+ */
+public class LongChoices<T extends Number> implements ChoiceStore<T> {
+    private long[] values = new long[16];
+    private int valueCount;
+    private final LongHashSet valueSet = new LongHashSet();
+    private final List<Range> ranges = new ArrayList<>();
+    private final List<int[]> segments = new ArrayList<>();
+    /** The position of the first choice of each segment. */
+    private int[] segmentStarts = new int[16];
+    private int size;
+
+    private static class Range {
+        final long from;
+        final long to;
+        final long step;
+
+        Range(long from, long to, long step) {
+            this.from = from;
+            this.to = to;
+            this.step = step;
+        }
+
+        boolean contains(long value) {
+            return value >= from && value <= to && Long.remainderUnsigned(value - from, step) == 0;
+        }
+    }
+
+    @Override
+    public void addAll(List<T> values) {
+        for(T value : values) {
+            add(value.longValue());
+        }
+    }
+
+    public void add(long value) {
+        if(valueCount == values.length) {
+            values = Arrays.copyOf(values, 2 * valueCount);
+        }
+        values[valueCount] = value;
+        valueSet.add(value);
+        addSegment(-1, valueCount++, 1);
+    }
+
+    /**
+     * Adds the values from, from + step, from + 2 * step, ... up to (and including, if reached) to.
+     */
+    public void addRange(long from, long to, long step) {
+        if(step <= 0) throw new IllegalArgumentException("step must be positive: " + step);
+        if(to < from) throw new IllegalArgumentException("Invalid range: " + from + ".." + to);
+        long lastIndex = Long.divideUnsigned(to - from, step);
+        if(Long.compareUnsigned(lastIndex, Integer.MAX_VALUE - 8 - size) >= 0) {
+            throw new IllegalArgumentException("Too many choices in range " + from + ".." + to);
+        }
+        ranges.add(new Range(from, to, step));
+        addSegment(ranges.size() - 1, 0, (int)lastIndex + 1);
+    }
+
+    /** A segment is {rangeIndex (-1 for explicit values), offset, length}. Consecutive explicit values share a segment. */
+    private void addSegment(int rangeIndex, int offset, int length) {
+        if(rangeIndex < 0 && !segments.isEmpty()) {
+            int[] last = segments.get(segments.size() - 1);
+            if(last[0] < 0 && last[1] + last[2] == offset) {
+                last[2] += length;
+                size += length;
+                return;
+            }
+        }
+        if(segments.size() == segmentStarts.length) {
+            segmentStarts = Arrays.copyOf(segmentStarts, 2 * segments.size());
+        }
+        segmentStarts[segments.size()] = size;
+        segments.add(new int[] {rangeIndex, offset, length});
+        size += length;
+    }
+
+    @Override
+    public boolean contains(T value) {
+        return value != null && contains(value.longValue());
+    }
+
+    public boolean contains(long value) {
+        if(valueSet.contains(value)) return true;
+        for(Range range : ranges) {
+            if(range.contains(value)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public long get(int position) {
+        if(position < 0 || position >= size) throw new IndexOutOfBoundsException("Position: " + position + ", size: " + size);
+        int segmentIndex = Arrays.binarySearch(segmentStarts, 0, segments.size(), position);
+        if(segmentIndex < 0) segmentIndex = -segmentIndex - 2;
+        int[] segment = segments.get(segmentIndex);
+        int pos = position - segmentStarts[segmentIndex];
+        if(segment[0] < 0) return values[segment[1] + pos];
+        Range range = ranges.get(segment[0]);
+        // the product may exceed Long.MAX_VALUE, but the sum wraps around to a value of the range
+        return range.from + pos * range.step;
+    }
+
+    @Override
+    public String getText(int position) {
+        return Long.toString(get(position));
+    }
+}
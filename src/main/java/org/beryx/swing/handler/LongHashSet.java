@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+/**
+ * A minimal open-addressing hash set of primitive longs.
+ */
+class LongHashSet {
+    private static final long EMPTY = 0L;
+
+    private long[] slots = new long[16];
+    private int size;
+    private boolean containsEmpty;
+
+    public boolean add(long value) {
+        if(value == EMPTY) {
+            boolean added = !containsEmpty;
+            containsEmpty = true;
+            return added;
+        }
+        if(2 * (size + 1) > slots.length) {
+            rehash(2 * slots.length);
+        }
+        int mask = slots.length - 1;
+        for(int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            if(slots[i] == value) return false;
+            if(slots[i] == EMPTY) {
+                slots[i] = value;
+                size++;
+                return true;
+            }
+        }
+    }
+
+    public boolean contains(long value) {
+        if(value == EMPTY) return containsEmpty;
+        int mask = slots.length - 1;
+        for(int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            if(slots[i] == value) return true;
+            if(slots[i] == EMPTY) return false;
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldSlots = slots;
+        slots = new long[capacity];
+        int mask = capacity - 1;
+        for(long value : oldSlots) {
+            if(value != EMPTY) {
+                int i = mix(value) & mask;
+                while(slots[i] != EMPTY) i = (i + 1) & mask;
+                slots[i] = value;
+            }
+        }
+    }
+
+    private static int mix(long value) {
+        long h = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        return (int)(h ^ (h >>> 33));
+    }
+}
@@ -18,14 +18,50 @@ package org.beryx.swing.handler;
 import org.beryx.textio.swing.SwingTextTerminal;
 
 import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.StyledDocument;
 import java.awt.event.*;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
+/**
+ * A {@link SwingTextTerminal} with a popup menu and a bounded scrollback.
+ * <br>The scrollback is limited by the properties {@code custom.scrollback.max.lines} and {@code custom.scrollback.max.chars}
+ * (0 means no limit). When a limit is exceeded by more than a tenth, the oldest lines are removed in one chunk,
+ * so that the cost of trimming is amortized. Lines are only removed when a line is completed outside a read,
+ * and the bookmarks are shifted accordingly. A bookmark in the removed content moves to the start of the document.
+ * <br>Output can be batched: the text printed inside {@link #batch(Runnable)} is written to the document at once,
+ * when the outermost batch completes. If the property {@code custom.output.batching} is true, all output is batched,
+ * and the buffered text is written at most once per frame, on the event dispatch thread.
+ * Buffered text is always written before a read, before a change of the prompt style, and before any operation
+ * that depends on the document offsets, such as setting a bookmark.
+ */
 public class MarsTerminal extends SwingTextTerminal {
     private static Logger logger = Logger.getLogger(MarsTerminal.class.getName());
 
+    public static final int DEFAULT_SCROLLBACK_MAX_LINES = 10_000;
+    public static final int DEFAULT_SCROLLBACK_MAX_CHARS = 0;
+
+    private static final int FRAME_MILLIS = 16;
+
     private final JPopupMenu popup = new JPopupMenu();
 
+    private volatile int scrollbackMaxLines = DEFAULT_SCROLLBACK_MAX_LINES;
+    private volatile int scrollbackMaxChars = DEFAULT_SCROLLBACK_MAX_CHARS;
+    private volatile boolean reading;
+    private boolean printingLine;
+    private final Map<String, Integer> bookmarkOffsets = new HashMap<>();
+
+    /** Guards the buffered output. Taken before the edit lock of {@link SwingTextTerminal}, when both are needed. */
+    private final Object outputLock = new Object();
+    private final StringBuilder pendingOutput = new StringBuilder();
+    private int batchDepth;
+    private boolean flushing;
+    private volatile boolean outputBatching;
+    private final Timer flushTimer;
+
     private static class PopupListener extends MouseAdapter {
         private final JPopupMenu popup;
 
@@ -56,6 +92,246 @@ public class MarsTerminal extends SwingTextTerminal {
         addAction("ctrl V", "Paste", () -> textPane.paste());
         MouseListener popupListener = new PopupListener(popup);
         textPane.addMouseListener(popupListener);
+
+        getProperties().addIntListener("custom.scrollback.max.lines", DEFAULT_SCROLLBACK_MAX_LINES, (term, newVal) -> scrollbackMaxLines = newVal);
+        getProperties().addIntListener("custom.scrollback.max.chars", DEFAULT_SCROLLBACK_MAX_CHARS, (term, newVal) -> scrollbackMaxChars = newVal);
+
+        flushTimer = new Timer(FRAME_MILLIS, e -> {
+            synchronized(outputLock) {
+                if(batchDepth == 0) flushOutput();
+            }
+        });
+        flushTimer.setRepeats(false);
+        getProperties().addBooleanListener("custom.output.batching", false, (term, newVal) -> {
+            outputBatching = newVal;
+            if(!newVal) flushOutput();
+        });
+    }
+
+    /**
+     * Runs the given action, writing its output to the document at once, when the outermost batch completes.
+     */
+    public void batch(Runnable action) {
+        synchronized(outputLock) {
+            batchDepth++;
+        }
+        try {
+            action.run();
+        } finally {
+            synchronized(outputLock) {
+                if(--batchDepth == 0) flushOutput();
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered output to the document.
+     */
+    public void flushOutput() {
+        synchronized(outputLock) {
+            if(pendingOutput.length() == 0 || flushing) return;
+            String text = pendingOutput.toString();
+            pendingOutput.setLength(0);
+            flushing = true;
+            try {
+                // print the complete lines at once, but print the last line separator separately,
+                // so that the terminal records the start of the current line
+                int lastSeparator = text.lastIndexOf('\n');
+                if(lastSeparator > 0) {
+                    rawPrint(text.substring(0, lastSeparator));
+                }
+                if(lastSeparator >= 0) {
+                    println();
+                }
+                if(lastSeparator < text.length() - 1) {
+                    rawPrint(text.substring(lastSeparator + 1));
+                }
+            } finally {
+                flushing = false;
+            }
+        }
+    }
+
+    /**
+     * Appends the text to the output buffer, if the output is currently batched.
+     * @return false, if the output is not batched and the text must be written immediately
+     */
+    private boolean bufferOutput(String text) {
+        synchronized(outputLock) {
+            if(flushing || (batchDepth == 0 && !outputBatching)) return false;
+            pendingOutput.append(text);
+            if(batchDepth == 0 && !flushTimer.isRunning()) {
+                flushTimer.start();
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public String read(boolean masking) {
+        flushOutput();
+        reading = true;
+        try {
+            return super.read(masking);
+        } finally {
+            reading = false;
+        }
+    }
+
+    @Override
+    public void println() {
+        if(bufferOutput("\n")) return;
+        printingLine = true;
+        try {
+            super.println();
+        } finally {
+            printingLine = false;
+        }
+    }
+
+    /**
+     * The scrollback is trimmed while {@link #println()} is in progress, because {@link SwingTextTerminal} computes
+     * the offset of the new line only after printing the line separator.
+     */
+    @Override
+    public void rawPrint(String message) {
+        if(bufferOutput(message)) return;
+        super.rawPrint(message);
+        if(printingLine && !reading) {
+            trimScrollback();
+        }
+    }
+
+    @Override
+    public boolean resetLine() {
+        flushOutput();
+        return super.resetLine();
+    }
+
+    @Override
+    public boolean moveToLineStart() {
+        flushOutput();
+        return super.moveToLineStart();
+    }
+
+    @Override
+    public boolean resetToOffset(int resetOffset) {
+        flushOutput();
+        return super.resetToOffset(resetOffset);
+    }
+
+    @Override
+    public void dispose(String resultData) {
+        flushOutput();
+        super.dispose(resultData);
+    }
+
+    @Override
+    public void setPromptColor(String colorName) {
+        flushOutput();
+        super.setPromptColor(colorName);
+    }
+
+    @Override
+    public void setPromptBackgroundColor(String colorName) {
+        flushOutput();
+        super.setPromptBackgroundColor(colorName);
+    }
+
+    @Override
+    public void setPromptFontFamily(String fontFamily) {
+        flushOutput();
+        super.setPromptFontFamily(fontFamily);
+    }
+
+    @Override
+    public void setPromptFontSize(int fontSize) {
+        flushOutput();
+        super.setPromptFontSize(fontSize);
+    }
+
+    @Override
+    public void setPromptBold(boolean bold) {
+        flushOutput();
+        super.setPromptBold(bold);
+    }
+
+    @Override
+    public void setPromptItalic(boolean italic) {
+        flushOutput();
+        super.setPromptItalic(italic);
+    }
+
+    @Override
+    public void setPromptUnderline(boolean underline) {
+        flushOutput();
+        super.setPromptUnderline(underline);
+    }
+
+    @Override
+    public void setPromptSubscript(boolean subscript) {
+        flushOutput();
+        super.setPromptSubscript(subscript);
+    }
+
+    @Override
+    public void setPromptSuperscript(boolean superscript) {
+        flushOutput();
+        super.setPromptSuperscript(superscript);
+    }
+
+    @Override
+    public boolean setBookmark(String bookmark) {
+        flushOutput();
+        synchronized(bookmarkOffsets) {
+            bookmarkOffsets.put(bookmark, getDocument().getLength());
+        }
+        return true;
+    }
+
+    @Override
+    public int getBookmarkOffset(String bookmark) {
+        synchronized(bookmarkOffsets) {
+            return bookmarkOffsets.getOrDefault(bookmark, -1);
+        }
+    }
+
+    private void trimScrollback() {
+        StyledDocument document = getDocument();
+        int removedLength = getTrimLength(document);
+        if(removedLength <= 0) return;
+        try {
+            document.remove(0, removedLength);
+        } catch (BadLocationException e) {
+            logger.warning("Cannot trim scrollback: " + e);
+            return;
+        }
+        synchronized(bookmarkOffsets) {
+            bookmarkOffsets.replaceAll((bookmark, offset) -> Math.max(0, offset - removedLength));
+        }
+    }
+
+    /**
+     * @return the length of the oldest lines to remove, so that the scrollback fits again within its limits
+     */
+    private int getTrimLength(StyledDocument document) {
+        Element root = document.getDefaultRootElement();
+        int length = document.getLength();
+        int trimLength = 0;
+        int maxLines = scrollbackMaxLines;
+        // trimming happens after a line separator, so the last element is the empty line that follows it
+        int lineCount = root.getElementCount() - 1;
+        if(maxLines > 0 && lineCount > maxLines + maxLines / 10) {
+            trimLength = root.getElement(lineCount - maxLines).getStartOffset();
+        }
+        int maxChars = scrollbackMaxChars;
+        if(maxChars > 0 && length > maxChars + maxChars / 10) {
+            int offset = length - maxChars;
+            Element line = root.getElement(root.getElementIndex(offset));
+            int lineBoundary = (line.getStartOffset() == offset) ? offset : Math.min(line.getEndOffset(), length);
+            trimLength = Math.max(trimLength, lineBoundary);
+        }
+        return trimLength;
     }
 
     private void configureMainMenu() {
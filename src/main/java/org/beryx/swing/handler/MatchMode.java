@@ -0,0 +1,32 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+/**
+ * The ways in which the partial input can be matched against the choices of a task.
+ * All modes ignore case.
+ */
+public enum MatchMode {
+    /** The choice starts with the input. Matches are presented in declaration order. */
+    PREFIX,
+
+    /** The choice contains the input. Matches are ranked: earlier occurrences and shorter choices come first. */
+    SUBSTRING,
+
+    /** The characters of the input appear in the choice in the same order. Matches are ranked by a score
+     * that favors consecutive characters and characters at the start of words. */
+    FUZZY
+}
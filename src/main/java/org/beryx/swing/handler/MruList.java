@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.util.*;
+
+/**
+ * A list of distinct values ordered by recency of use, with the time of the last use and the number of uses of each value.
+ * <br>Adding a value (or promoting an existing one) takes constant time. So does evicting the least recently used value.
+ */
+class MruList {
+    /** Iteration order: least recently used first. */
+    private final LinkedHashMap<String, Use> entries = new LinkedHashMap<>();
+    private List<String> snapshot;
+
+    /**
+     * The last use of a value, and the number of times the value has been used.
+     */
+    static final class Use {
+        final long timestamp;
+        final int count;
+
+        Use(long timestamp, int count) {
+            this.timestamp = timestamp;
+            this.count = count;
+        }
+
+        /**
+         * @return the number of uses, halved for each half-life elapsed since the last use
+         */
+        double frecency(long now, long halfLifeMillis) {
+            double age = Math.max(0, now - timestamp);
+            return count * Math.pow(0.5, age / halfLifeMillis);
+        }
+    }
+
+    /**
+     * Adds a use of the value and promotes it to the most recently used position.
+     * @return true, if the value was not already present
+     */
+    public boolean add(String value, long timestamp) {
+        return add(value, timestamp, 1);
+    }
+
+    /**
+     * Adds the given number of uses of the value and promotes it to the most recently used position.
+     * @return true, if the value was not already present
+     */
+    public boolean add(String value, long timestamp, int count) {
+        Use use = entries.remove(value);
+        entries.put(value, new Use(timestamp, (use == null) ? count : use.count + count));
+        snapshot = null;
+        return use == null;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public boolean contains(String value) {
+        return entries.containsKey(value);
+    }
+
+    /**
+     * @return the last use of the value, or null if the value is not present
+     */
+    public Use getUse(String value) {
+        return entries.get(value);
+    }
+
+    /**
+     * @return the time of the last use of the least recently used value, or {@link Long#MAX_VALUE} if the list is empty
+     */
+    public long eldestTimestamp() {
+        Iterator<Use> it = entries.values().iterator();
+        return it.hasNext() ? it.next().timestamp : Long.MAX_VALUE;
+    }
+
+    public void removeEldest() {
+        Iterator<String> it = entries.keySet().iterator();
+        if(it.hasNext()) {
+            it.next();
+            it.remove();
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Removes the values that have not been used since the given time.
+     * @return the number of removed values
+     */
+    public int removeOlderThan(long minTimestamp) {
+        int removed = 0;
+        Iterator<Use> it = entries.values().iterator();
+        while(it.hasNext() && it.next().timestamp < minTimestamp) {
+            it.remove();
+            removed++;
+        }
+        if(removed > 0) snapshot = null;
+        return removed;
+    }
+
+    /**
+     * @return an immutable snapshot of the values, most recently used first. Later changes do not affect a returned snapshot.
+     */
+    public List<String> values() {
+        if(snapshot == null) {
+            String[] values = new String[entries.size()];
+            int i = values.length;
+            for(String value : entries.keySet()) {
+                values[--i] = value;
+            }
+            snapshot = Collections.unmodifiableList(Arrays.asList(values));
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the values, by decreasing frecency: the number of uses, halved for each half-life elapsed since the last use.
+     * Values with the same frecency are ordered by recency.
+     */
+    public List<String> frequentValues(long now, long halfLifeMillis) {
+        List<String> values = new ArrayList<>(values());
+        Map<String, Double> scores = new HashMap<>();
+        entries.forEach((value, use) -> scores.put(value, use.frecency(now, halfLifeMillis)));
+        // the sort is stable, so that the recency order is kept for equal scores
+        values.sort((v1, v2) -> Double.compare(scores.get(v2), scores.get(v1)));
+        return values;
+    }
+
+    /**
+     * @return a read-only view of the values with their uses, least recently used first
+     */
+    public Set<Map.Entry<String, Use>> eldestFirst() {
+        return Collections.unmodifiableMap(entries).entrySet();
+    }
+}
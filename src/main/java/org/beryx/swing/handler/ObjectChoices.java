@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Choices of any type, with a hash-based membership check. The displayed texts are given by {@link Object#toString()}.
+ */
+public class ObjectChoices<T> implements ChoiceStore<T> {
+    private final List<T> values = new ArrayList<>();
+    private final Set<T> valueSet = new HashSet<>();
+
+    @Override
+    public void addAll(List<T> values) {
+        this.values.addAll(values);
+        this.valueSet.addAll(values);
+    }
+
+    @Override
+    public boolean contains(T value) {
+        return valueSet.contains(value);
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public String getText(int position) {
+        return values.get(position).toString();
+    }
+}
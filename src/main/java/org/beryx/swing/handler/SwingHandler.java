@@ -16,46 +16,84 @@
 package org.beryx.swing.handler;
 
 import org.beryx.textio.*;
-import org.beryx.textio.swing.SwingTextTerminal;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
-import java.util.stream.DoubleStream;
-import java.util.stream.IntStream;
-import java.util.stream.LongStream;
 
-import javax.swing.event.DocumentEvent;
-import javax.swing.event.DocumentListener;
+import javax.swing.SwingUtilities;
 
 import static org.beryx.textio.ReadInterruptionStrategy.Action.ABORT;
 
-public class SwingHandler {
+/**
+ * Reads the fields of a data object in a Swing text terminal, offering choices and previously entered values.
+ * A form can also be run without a display, in a {@link HeadlessTextTerminal}.
+ * <br>The handler registers listeners and key handlers on the terminal. A handler can be reused for several data objects
+ * (see {@link #rebind(Object)}), and it should be {@link #close() closed} when it is no longer needed.
+ * <br>A form that is entered repeatedly should be {@link #compile() compiled} once its tasks are defined.
+ * <br>While a field is edited, the next task is prepared in the background (see {@link Task#prepare()}).
+ */
+public class SwingHandler implements AutoCloseable {
     private static final String KEY_PREV_CHOICE = "pressed DOWN";
     private static final String KEY_NEXT_CHOICE = "pressed UP";
     private static final String KEY_PREV_HISTORY = "ctrl shift pressed LEFT";
     private static final String KEY_NEXT_HISTORY = "ctrl shift pressed RIGHT";
+    private static final int MAX_SEARCH_RESULTS = 100;
 
     private final TextIO textIO;
-    private final SwingTextTerminal terminal;
+    private final HandlerTerminal terminal;
     private final History historyStore;
-    private final Object dataObject;
+    /** Null, if the metrics are disabled. */
+    private final HandlerMetrics metrics;
+    private Object dataObject;
+    private boolean closed;
+    private boolean compiled;
+
+    private final Runnable changeListener = this::inputChanged;
+    /** The actions registered for each key stroke, used to unregister them when the handler is closed. */
+    private final List<String> registeredKeyStrokes = new ArrayList<>();
 
     private final String backKeyStroke;
+    private final String choicePopupKeyStroke;
+    private final String historySearchKeyStroke;
+    private final String historySearchAllKeyStroke;
 
     private String originalInput = "";
     private int choiceIndex = -1;
-    private List<String> choices = new ArrayList<>();
-    private List<String> filteredChoices = new ArrayList<>();
+    private final ChoiceFilter filteredChoices = new ChoiceFilter();
+    /** Null, if the choices are filtered synchronously, on the thread that reads the input. */
+    private final BackgroundChoiceFilter backgroundFilter;
+    private final long choiceFilterMaxWaitMillis;
+    private long choiceGeneration = -1;
+    private volatile boolean replacingInput;
+    private Task<?,?,?> pendingChoiceTask;
+    private volatile Task<?,?,?> choiceTask;
+
+    /** Created and used on the event dispatch thread. */
+    private ChoicePopup choicePopup;
+    private volatile boolean choicePopupShowing;
 
     private String historyInput = "";
     private int historyIndex = -1;
     private List<String> history= new ArrayList<>();
+    /** The previously entered values of the current task by decreasing frecency, if the task ranks its choices by frecency. */
+    private ChoiceIndex frequentValues = ChoiceIndex.EMPTY;
+    private ChoiceMatches rankedBase;
+    private ChoiceMatches rankedMatches;
+
+    private boolean searchAllKeys;
+    private int searchIndex = -1;
+    private List<String> searchResults = Collections.emptyList();
 
     private final Supplier<StringInputReader> stringInputReaderSupplier;
     private final Supplier<IntInputReader> intInputReaderSupplier;
@@ -64,10 +102,11 @@ public class SwingHandler {
 
     private final List<Task<?,?,?>> tasks = new ArrayList<>();
 
+    private static ExecutorService preparationExecutor;
+
     public SwingHandler(TextIO textIO, String appName, Object dataObject) {
         this.textIO = textIO;
-        this.terminal = (SwingTextTerminal)textIO.getTextTerminal();
-        this.historyStore = new History(appName);
+        this.terminal = HandlerTerminal.of(textIO.getTextTerminal());
         this.dataObject = dataObject;
 
         this.stringInputReaderSupplier = () -> textIO.newStringInputReader();
@@ -75,60 +114,311 @@ public class SwingHandler {
         this.longInputReaderSupplier = () -> textIO.newLongInputReader();
         this.doubleInputReaderSupplier = () -> textIO.newDoubleInputReader();
 
-        this.backKeyStroke = terminal.getProperties().getString("custom.back.key", "ctrl U");
-
-        terminal.getDocument().addDocumentListener(new DocumentListener() {
-            @Override public void removeUpdate(DocumentEvent e) {choiceIndex = -1;}
-            @Override public void insertUpdate(DocumentEvent e) {choiceIndex = -1;}
-            @Override public void changedUpdate(DocumentEvent e) {choiceIndex = -1;}
-        });
-
-        terminal.registerHandler(KEY_NEXT_CHOICE, t -> {
-            if(choiceIndex < 0) {
+        TerminalProperties<?> props = terminal.getProperties();
+        this.backKeyStroke = props.getString("custom.back.key", "ctrl U");
+        this.choicePopupKeyStroke = props.getString("custom.choice.popup.key", "ctrl SPACE");
+        this.historySearchKeyStroke = props.getString("custom.history.search.key", "ctrl R");
+        this.historySearchAllKeyStroke = props.getString("custom.history.search.all.key", "ctrl shift R");
+        this.metrics = props.getBoolean("custom.metrics.enabled", false)
+                ? new HandlerMetrics(appName).start(props.getLong("custom.metrics.summary.interval.s", 0)) : null;
+        // the history is shared by the handlers of the application, and configured by the first one
+        this.historyStore = History.acquire(appName, history -> history
+                .withMaxValuesPerKey(props.getInt("custom.history.max.values.per.key", History.DEFAULT_MAX_VALUES_PER_KEY))
+                .withMaxValues(props.getInt("custom.history.max.values", History.DEFAULT_MAX_VALUES))
+                .withMaxAge(TimeUnit.DAYS.toMillis(props.getLong("custom.history.max.age.days", 0)))
+                .withSaveDelay(props.getLong("custom.history.save.delay.ms", History.DEFAULT_SAVE_DELAY_MILLIS)));
+        if(metrics != null) historyStore.attachMetrics(metrics);
+        this.choiceFilterMaxWaitMillis = props.getLong("custom.choice.filter.max.wait.ms", 0);
+        this.backgroundFilter = (choiceFilterMaxWaitMillis > 0) ? new BackgroundChoiceFilter() : null;
+
+        terminal.addChangeListener(changeListener);
+
+        registerHandler(KEY_NEXT_CHOICE, HandlerMetrics.KEY_CHOICE, t -> {
+            if(choicePopupShowing) {
+                SwingUtilities.invokeLater(() -> choicePopup.moveSelection(-1));
+                return new ReadHandlerData(ReadInterruptionStrategy.Action.CONTINUE);
+            }
+            if(choiceIndex < 0 && backgroundFilter == null) {
                 originalInput = terminal.getPartialInput();
-                filteredChoices = choices.stream()
-                        .filter(choice -> choice.toLowerCase().startsWith(originalInput.toLowerCase()))
-                        .collect(Collectors.toList());
+                Task<?,?,?> task = choiceTask;
+                // the choices of a provider depend on the input, so they are fetched again after each edit
+                if(task != null && (pendingChoiceTask != null || task.choiceLoader != null)) {
+                    filteredChoices.reset(task.getChoiceIndex(originalInput), task.matchMode, task.maxMatches);
+                    pendingChoiceTask = null;
+                }
+                filteredChoices.update(originalInput);
             }
-            if(choiceIndex < filteredChoices.size() - 1) {
-                int savedChoiceIndex = ++choiceIndex;
-                t.replaceInput(filteredChoices.get(choiceIndex), false);
-                choiceIndex = savedChoiceIndex;
+            ChoiceMatches matches = getMatches();
+            if(choiceIndex < matches.size() - 1) {
+                replaceChoice(t, ++choiceIndex, matches.get(choiceIndex));
             }
             return new ReadHandlerData(ReadInterruptionStrategy.Action.CONTINUE);
         });
 
-        terminal.registerHandler(KEY_PREV_CHOICE, t -> {
+        registerHandler(KEY_PREV_CHOICE, HandlerMetrics.KEY_CHOICE, t -> {
+            if(choicePopupShowing) {
+                SwingUtilities.invokeLater(() -> choicePopup.moveSelection(1));
+                return new ReadHandlerData(ReadInterruptionStrategy.Action.CONTINUE);
+            }
             if(choiceIndex >= 0) {
-                int savedChoiceIndex = --choiceIndex;
-                String text = (choiceIndex < 0) ? originalInput : filteredChoices.get(choiceIndex);
-                t.replaceInput(text, false);
-                choiceIndex = savedChoiceIndex;
+                --choiceIndex;
+                String text = (choiceIndex < 0) ? originalInput : getMatches().get(choiceIndex);
+                replaceChoice(t, choiceIndex, text);
             }
             return new ReadHandlerData(ReadInterruptionStrategy.Action.CONTINUE);
         });
 
         history.addAll(Arrays.asList("Alice", "Bob", "Chloe", "Daisy", "Elaine", "Frank"));
 
-        terminal.registerHandler(KEY_NEXT_HISTORY, t -> {
+        registerHandler(KEY_NEXT_HISTORY, HandlerMetrics.KEY_HISTORY, t -> {
             if (historyIndex < history.size() - 1) {
                 historyIndex++;
                 String text = history.get(historyIndex);
-                t.replaceInput(text, false);
+                t.replaceInput(text);
             }
             return new ReadHandlerData(ReadInterruptionStrategy.Action.CONTINUE);
         });
 
-        terminal.registerHandler(KEY_PREV_HISTORY, t -> {
+        registerHandler(KEY_PREV_HISTORY, HandlerMetrics.KEY_HISTORY, t -> {
             if (historyIndex >= 0) {
                 historyIndex--;
                 String text = (historyIndex < 0) ? historyInput : history.get(historyIndex);
-                t.replaceInput(text, false);
+                t.replaceInput(text);
             }
             return new ReadHandlerData(ReadInterruptionStrategy.Action.CONTINUE);
         });
 
-        terminal.registerHandler(backKeyStroke, t -> new ReadHandlerData(ABORT));
+        registerHandler(historySearchKeyStroke, HandlerMetrics.KEY_SEARCH, t -> searchHistory(t, false));
+        registerHandler(historySearchAllKeyStroke, HandlerMetrics.KEY_SEARCH, t -> searchHistory(t, true));
+
+        registerHandler(choicePopupKeyStroke, HandlerMetrics.KEY_POPUP, t -> {
+            Task<?,?,?> task = choiceTask;
+            if(task != null) {
+                // the index is built here, so that a large index is not built on the event dispatch thread
+                ChoiceIndex index = task.getChoiceIndex(terminal.getPartialInput());
+                SwingUtilities.invokeLater(() -> toggleChoicePopup(index, task.matchMode, task.maxMatches));
+            }
+            return new ReadHandlerData(ReadInterruptionStrategy.Action.CONTINUE);
+        });
+
+        registerHandler(backKeyStroke, HandlerMetrics.KEY_BACK, t -> new ReadHandlerData(ABORT));
+    }
+
+    /**
+     * Replaces the input with a choice, without resetting the cycling through the choices.
+     */
+    private void replaceChoice(HandlerTerminal t, int index, String text) {
+        long generation = choiceGeneration;
+        replacingInput = true;
+        try {
+            t.replaceInput(text);
+        } finally {
+            replacingInput = false;
+        }
+        choiceIndex = index;
+        choiceGeneration = generation;
+    }
+
+    /**
+     * Replaces the input with the next previously entered value that contains the text typed by the user, ignoring case.
+     * The first key press searches the values of the current field, or those of all fields if allKeys is true,
+     * and the next ones cycle through the matches, from the most recently used to the oldest.
+     * Editing the input starts a new search.
+     * <br>The first search starts building the search index of the history, which loads all its keys in the background.
+     * Until the index is ready, the values are scanned instead.
+     */
+    private ReadHandlerData searchHistory(HandlerTerminal t, boolean allKeys) {
+        Task<?,?,?> task = choiceTask;
+        if(task == null) return new ReadHandlerData(ReadInterruptionStrategy.Action.CONTINUE);
+        if(searchIndex < 0 || allKeys != searchAllKeys) {
+            searchAllKeys = allKeys;
+            searchResults = historyStore.search(terminal.getPartialInput(), allKeys ? null : task.key, MAX_SEARCH_RESULTS);
+            searchIndex = -1;
+        }
+        if(searchIndex < searchResults.size() - 1) {
+            int index = searchIndex + 1;
+            replacingInput = true;
+            try {
+                t.replaceInput(searchResults.get(index));
+            } finally {
+                replacingInput = false;
+            }
+            searchIndex = index;
+        }
+        return new ReadHandlerData(ReadInterruptionStrategy.Action.CONTINUE);
+    }
+
+    /**
+     * @return the choices matching the original input, preceded by the matching previously entered values
+     * if the current task ranks its choices by frecency
+     */
+    private ChoiceMatches getMatches() {
+        ChoiceMatches matches = getFilteredMatches();
+        Task<?,?,?> task = choiceTask;
+        if(task == null || frequentValues.size() == 0) return matches;
+        if(choiceIndex < 0 || matches != rankedBase) {
+            rankedMatches = new FrecencyRankedMatches(matches, frequentValues, task.matchMode, originalInput);
+            rankedBase = matches;
+        }
+        return rankedMatches;
+    }
+
+    /**
+     * @return the choices matching the original input. With background filtering, the matches are requested
+     * when the user starts cycling through the choices, and this method waits for them at most
+     * {@code custom.choice.filter.max.wait.ms}. If the filter is still running, the best matches found so far are returned,
+     * and later calls return more matches as they become available.
+     */
+    private ChoiceMatches getFilteredMatches() {
+        if(backgroundFilter == null) return filteredChoices;
+        Task<?,?,?> task = choiceTask;
+        if(task == null) return ChoiceMatches.EMPTY;
+        if(choiceIndex < 0 && (choiceGeneration < 0 || backgroundFilter.isStale(choiceGeneration))) {
+            String input = terminal.getPartialInput();
+            originalInput = input;
+            pendingChoiceTask = null;
+            choiceGeneration = backgroundFilter.submit(() -> task.getChoiceIndex(input), task.matchMode, task.maxMatches, input, result -> {});
+        }
+        try {
+            BackgroundChoiceFilter.Result result = backgroundFilter.await(choiceGeneration, choiceFilterMaxWaitMillis);
+            return (result != null) ? result : ChoiceMatches.EMPTY;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ChoiceMatches.EMPTY;
+        }
+    }
+
+    /**
+     * Called when the input is edited, on the thread that edits the document. The choices of a provider
+     * are prefetched in the background, so that they are usually available when the user asks for them.
+     * A background filter still running for the previous input is cancelled, and so is a history search.
+     */
+    private void inputChanged() {
+        choiceIndex = -1;
+        if(!replacingInput) {
+            searchIndex = -1;
+            if(backgroundFilter != null) {
+                choiceGeneration = -1;
+                backgroundFilter.cancel();
+            }
+        }
+        Task<?,?,?> task = choiceTask;
+        if(task != null && task.choiceLoader != null) {
+            SwingUtilities.invokeLater(() -> {
+                if(choiceTask == task) task.choiceLoader.request(terminal.getPartialInput());
+            });
+        }
+    }
+
+    /**
+     * Shows or hides the popup with the choices of the current task. While the popup is showing,
+     * the Up and Down keys move the selection in the popup list.
+     */
+    private void toggleChoicePopup(ChoiceIndex index, MatchMode mode, int maxMatches) {
+        if(choicePopup == null) {
+            choicePopup = terminal.createChoicePopup(backgroundFilter != null);
+            if(choicePopup == null) return;
+        }
+        if(choicePopup.isShowing()) {
+            choicePopup.hide();
+        } else {
+            choicePopup.show(index, mode, maxMatches);
+        }
+        choicePopupShowing = choicePopup.isShowing();
+    }
+
+    private void hideChoicePopup() {
+        if(choicePopupShowing) {
+            choicePopupShowing = false;
+            SwingUtilities.invokeLater(() -> {
+                if(choicePopup != null) choicePopup.hide();
+            });
+        }
+    }
+
+    /**
+     * With metrics enabled, the handler is wrapped, so that its latency is recorded in the given metric.
+     */
+    private void registerHandler(String keyStroke, String metric, Function<HandlerTerminal, ReadHandlerData> handler) {
+        if(metrics != null) {
+            LatencyHistogram latency = metrics.latency(metric);
+            Function<HandlerTerminal, ReadHandlerData> untimedHandler = handler;
+            handler = t -> {
+                long start = System.nanoTime();
+                try {
+                    return untimedHandler.apply(t);
+                } finally {
+                    metrics.recordRendered(latency, start);
+                }
+            };
+        }
+        if(terminal.registerHandler(keyStroke, handler)) {
+            registeredKeyStrokes.add(keyStroke);
+        }
+    }
+
+    /**
+     * Binds the handler to a new data object, so that the same tasks can be executed for it.
+     */
+    public void rebind(Object dataObject) {
+        checkNotClosed();
+        this.dataObject = dataObject;
+        tasks.forEach(Task::discardPreparation);
+        setChoices(null);
+        setHistory(Collections.emptyList(), ChoiceIndex.EMPTY);
+    }
+
+    /**
+     * Unregisters the listeners and key handlers of this handler and releases its history.
+     * Key handlers registered in the meantime for the same key strokes by other handlers are left in place.
+     */
+    @Override
+    public void close() {
+        if(closed) return;
+        closed = true;
+        terminal.removeChangeListener(changeListener);
+        registeredKeyStrokes.forEach(terminal::unregisterHandler);
+        registeredKeyStrokes.clear();
+        SwingUtilities.invokeLater(() -> {
+            if(choicePopup != null) choicePopup.dispose();
+        });
+        if(backgroundFilter != null) backgroundFilter.shutdown();
+        if(metrics != null) {
+            historyStore.detachMetrics(metrics);
+            metrics.stop();
+        }
+        historyStore.release();
+    }
+
+    private void checkNotClosed() {
+        if(closed) throw new IllegalStateException("The handler is closed.");
+    }
+
+    /**
+     * Freezes the form, so that it can be executed repeatedly with minimal setup.
+     * The input readers of all tasks are built once, and the field accessors are resolved
+     * for the class of the current data object, so that unknown fields are reported immediately.
+     * <br>After compilation, tasks and choices can no longer be added or modified.
+     * The handler can still be {@link #rebind(Object) rebound} to other data objects.
+     */
+    public SwingHandler compile() {
+        checkNotClosed();
+        if(!compiled) {
+            for(Task<?,?,?> task : tasks) {
+                getAccessor(task.key);
+                task.compile();
+            }
+            compiled = true;
+        }
+        return this;
+    }
+
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    private void checkNotCompiled() {
+        if(compiled) throw new IllegalStateException("The form is compiled and can no longer be modified.");
     }
 
     public TextIO getTextIO() {
@@ -139,17 +429,36 @@ public class SwingHandler {
         return backKeyStroke;
     }
 
+    public String getChoicePopupKeyStroke() {
+        return choicePopupKeyStroke;
+    }
+
     public class Task<T,B extends Task<T,B, R>, R extends InputReader<T, ?>> implements Runnable {
         protected final String prompt;
         protected final String key;
         protected final Supplier<R> inputReaderSupplier;
         protected final Supplier<T> defaultValueSupplier;
         protected final Consumer<T> valueSetter;
-        protected final List<T> choices = new ArrayList<>();
+        protected final ChoiceStore<T> choices;
         protected boolean constrainedInput;
+        protected boolean frecencyRanking;
         protected Consumer<R> inputReaderConfigurator;
+        protected MatchMode matchMode = MatchMode.PREFIX;
+        protected int maxMatches = ChoiceFilter.DEFAULT_MAX_MATCHES;
+        private ChoiceIndex index;
+        private R compiledInputReader;
+        private ChoiceLoader choiceLoader;
+        private Future<Preparation<T>> preparation;
+        private volatile LatencyHistogram dwellLatency;
+        private volatile LatencyHistogram prepareLatency;
 
         public Task(String key, String prompt, Supplier<R> inputReaderSupplier, Supplier<T> defaultValueSupplier, Consumer<T> valueSetter) {
+            this(key, prompt, inputReaderSupplier, defaultValueSupplier, valueSetter, new ObjectChoices<>());
+        }
+
+        public Task(String key, String prompt, Supplier<R> inputReaderSupplier, Supplier<T> defaultValueSupplier, Consumer<T> valueSetter,
+                    ChoiceStore<T> choices) {
+            this.choices = choices;
             this.prompt = prompt;
             this.key = key;
             this.inputReaderSupplier = inputReaderSupplier;
@@ -159,52 +468,222 @@ public class SwingHandler {
 
         @Override
         public void run() {
-            setChoices(choices.stream().map(Object::toString).collect(Collectors.toList()));
-            setHistory(historyStore.getValues(key));
+            Preparation<T> prepared = getPreparation();
+            setChoices(this);
+            setHistory(prepared.history, prepared.frequentValues);
+            long start = (metrics != null) ? System.nanoTime() : 0;
             try {
-                R inputReader = inputReaderSupplier.get();
-                inputReader.withDefaultValue(defaultValueSupplier.get());
-                if(inputReaderConfigurator != null) {
-                    inputReaderConfigurator.accept(inputReader);
-                }
-                if(constrainedInput) {
-                    inputReader.withValueChecker((val,name) -> choices.contains(val) ? null
-                            : Arrays.asList("'" + val + "' is not in the choice list."));
-
-                }
+                R inputReader = (compiledInputReader != null) ? compiledInputReader : createInputReader();
+                inputReader.withDefaultValue(prepared.defaultValue);
                 T value = inputReader.read(prompt);
+                if(metrics != null) getDwellLatency().recordSince(start);
                 historyStore.addValue(key, value.toString());
                 valueSetter.accept(value);
+                // the history and the default value have changed
+                preparation = null;
             } finally {
-                setChoices(Collections.emptyList());
-                setHistory(Collections.emptyList());
+                setChoices(null);
+                setHistory(Collections.emptyList(), ChoiceIndex.EMPTY);
             }
         }
 
+        /**
+         * Starts preparing the task in the background, unless it is already prepared:
+         * the first choices of its provider are requested, and its history and default value are retrieved.
+         * The choice index is not built here: it is only built when the user asks for the choices,
+         * so that a large range of choices is never materialized unless it is actually browsed.
+         * The preparation is used by the next run of the task, and it is kept if the run is aborted.
+         */
+        void prepare() {
+            if(preparation == null) {
+                preparation = getPreparationExecutor().submit(this::createPreparation);
+            }
+        }
+
+        void discardPreparation() {
+            if(preparation != null) {
+                preparation.cancel(false);
+                preparation = null;
+            }
+        }
+
+        private Preparation<T> getPreparation() {
+            if(preparation != null) {
+                try {
+                    return preparation.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // report the failure on the reading thread, as if the task had not been prepared
+                    preparation = null;
+                    if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    throw new IllegalStateException("Cannot prepare task " + key, e.getCause());
+                }
+            }
+            Preparation<T> prepared = createPreparation();
+            preparation = CompletableFuture.completedFuture(prepared);
+            return prepared;
+        }
+
+        private Preparation<T> createPreparation() {
+            long start = (metrics != null) ? System.nanoTime() : 0;
+            if(choiceLoader != null) {
+                choiceLoader.request("");
+            }
+            ChoiceIndex frequentValues = frecencyRanking ? new ChoiceIndex(historyStore.getFrequentValues(key)) : ChoiceIndex.EMPTY;
+            Preparation<T> prepared = new Preparation<>(historyStore.getValues(key), frequentValues, defaultValueSupplier.get());
+            if(metrics != null) getPrepareLatency().recordSince(start);
+            return prepared;
+        }
+
+        private LatencyHistogram getDwellLatency() {
+            if(dwellLatency == null) dwellLatency = metrics.latency("task." + key + ".dwell");
+            return dwellLatency;
+        }
+
+        private LatencyHistogram getPrepareLatency() {
+            if(prepareLatency == null) prepareLatency = metrics.latency("task." + key + ".prepare");
+            return prepareLatency;
+        }
+
+        private R createInputReader() {
+            R inputReader = inputReaderSupplier.get();
+            if(inputReaderConfigurator != null) {
+                inputReaderConfigurator.accept(inputReader);
+            }
+            if(constrainedInput) {
+                inputReader.withValueChecker((val,name) -> isChoice(val) ? null
+                        : Arrays.asList("'" + val + "' is not in the choice list."));
+
+            }
+            return inputReader;
+        }
+
+        /**
+         * Prepares the input reader, which is then reused for each run, only its default value being updated.
+         * The choice index stays lazy, so that a range of choices is not materialized by the compilation.
+         */
+        private void compile() {
+            compiledInputReader = createInputReader();
+        }
+
         @SuppressWarnings("unchecked")
         public B withInputReaderConfigurator(Consumer<R> configurator) {
+            checkNotCompiled();
             this.inputReaderConfigurator = configurator;
             return (B)this;
         }
 
+        @SuppressWarnings("unchecked")
+        public B withMatchMode(MatchMode matchMode) {
+            checkNotCompiled();
+            this.matchMode = matchMode;
+            return (B)this;
+        }
+
+        /**
+         * Sets the maximum number of matches offered in the {@link MatchMode#SUBSTRING SUBSTRING}
+         * and {@link MatchMode#FUZZY FUZZY} modes. All matches are offered in the {@link MatchMode#PREFIX PREFIX} mode.
+         */
+        @SuppressWarnings("unchecked")
+        public B withMaxMatches(int maxMatches) {
+            checkNotCompiled();
+            this.maxMatches = maxMatches;
+            return (B)this;
+        }
+
         @SuppressWarnings("unchecked")
         public B addChoices(List<T> choices) {
+            checkNotCompiled();
             this.choices.addAll(choices);
+            choicesChanged();
+            return (B)this;
+        }
+
+        protected void choicesChanged() {
+            this.index = null;
+        }
+
+        private boolean isChoice(T value) {
+            if(choiceLoader == null) return choices.contains(value);
+            String text = value.toString();
+            ChoiceIndex provided = choiceLoader.get(text);
+            for(int pos = 0; pos < provided.size(); pos++) {
+                if(provided.get(pos).equals(text)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Obtains the choices from the given provider, instead of the choices added to the task.
+         * The provider is asked for the choices starting with the current input, at most {@code maxChoices} at a time.
+         * The results are loaded in the background and the most recent ones are cached.
+         */
+        @SuppressWarnings("unchecked")
+        public B withChoiceProvider(ChoiceProvider provider, int maxChoices) {
+            checkNotCompiled();
+            this.choiceLoader = new ChoiceLoader(provider, maxChoices);
+            return (B)this;
+        }
+
+        public B withChoiceProvider(ChoiceProvider provider) {
+            return withChoiceProvider(provider, ChoiceLoader.DEFAULT_MAX_CHOICES);
+        }
+
+        /**
+         * @return the choices for the given input: the choices of the provider, if any, or all the choices added to the task
+         */
+        protected ChoiceIndex getChoiceIndex(String input) {
+            return (choiceLoader != null) ? choiceLoader.get(input) : getChoiceIndex();
+        }
+
+        protected synchronized ChoiceIndex getChoiceIndex() {
+            if(index == null) {
+                index = new ChoiceIndex(choices.asStrings());
+            }
+            return index;
+        }
+
+        /**
+         * Offers first, when cycling through the choices, the previously entered values that match the input,
+         * ordered by frecency: the values entered often and recently come first.
+         */
+        @SuppressWarnings("unchecked")
+        public B withFrecencyRanking() {
+            checkNotCompiled();
+            this.frecencyRanking = true;
             return (B)this;
         }
 
         public void constrainInputToChoices() {
+            checkNotCompiled();
             this.constrainedInput = true;
         }
     }
 
-    private void setChoices(List<String> choices) {
+    /**
+     * The choice index of the task is only built when the user starts cycling through its choices.
+     * The first choices of a provider are prefetched in the background.
+     */
+    private void setChoices(Task<?,?,?> task) {
         this.originalInput = "";
         this.choiceIndex = -1;
-        this.choices = choices;
+        this.choiceGeneration = -1;
+        this.searchIndex = -1;
+        if(backgroundFilter != null) backgroundFilter.cancel();
+        this.pendingChoiceTask = task;
+        this.choiceTask = task;
+        if(task != null && task.choiceLoader != null) {
+            task.choiceLoader.request("");
+        }
+        hideChoicePopup();
+        this.filteredChoices.reset(ChoiceIndex.EMPTY);
     }
 
-    private void setHistory(List<String> history) {
+    private void setHistory(List<String> history, ChoiceIndex frequentValues) {
+        this.frequentValues = frequentValues;
+        this.rankedBase = null;
+        this.rankedMatches = null;
         this.historyIndex = -1;
         this.history = history;
     }
@@ -222,15 +701,16 @@ public class SwingHandler {
             super(fieldName, prompt,
                     stringInputReaderSupplier,
                     getDefaultValueSupplier(fieldName),
-                    getValueSetter(fieldName));
+                    getValueSetter(fieldName),
+                    new ObjectChoices<>());
         }
         public StringTask addChoices(String... choices) {
-            this.choices.addAll(Arrays.asList(choices));
-            return this;
+            return addChoices(Arrays.asList(choices));
         }
     }
 
     public StringTask addStringTask(String fieldName, String prompt) {
+        checkNotCompiled();
         StringTask task = new StringTask(fieldName, prompt);
         tasks.add(task);
         return task;
@@ -238,19 +718,40 @@ public class SwingHandler {
 
 
     public class IntTask extends Task<Integer, IntTask, IntInputReader> {
+        private final LongChoices<Integer> intChoices;
+
         public IntTask(String fieldName, String prompt) {
+            this(fieldName, prompt, new LongChoices<>());
+        }
+        private IntTask(String fieldName, String prompt, LongChoices<Integer> choices) {
             super(fieldName, prompt,
                     intInputReaderSupplier,
                     getDefaultValueSupplier(fieldName),
-                    getValueSetter(fieldName));
+                    getValueSetter(fieldName),
+                    choices);
+            this.intChoices = choices;
         }
         public IntTask addChoices(int... choices) {
-            this.choices.addAll(IntStream.of(choices).boxed().collect(Collectors.toList()));
+            checkNotCompiled();
+            for(int choice : choices) {
+                intChoices.add(choice);
+            }
+            choicesChanged();
             return this;
         }
+        public IntTask addChoiceRange(int from, int to, int step) {
+            checkNotCompiled();
+            intChoices.addRange(from, to, step);
+            choicesChanged();
+            return this;
+        }
+        public IntTask addChoiceRange(int from, int to) {
+            return addChoiceRange(from, to, 1);
+        }
     }
 
     public IntTask addIntTask(String fieldName, String prompt) {
+        checkNotCompiled();
         IntTask task = new IntTask(fieldName, prompt);
         tasks.add(task);
         return task;
@@ -258,19 +759,40 @@ public class SwingHandler {
 
 
     public class LongTask extends Task<Long, LongTask, LongInputReader> {
+        private final LongChoices<Long> longChoices;
+
         public LongTask(String fieldName, String prompt) {
+            this(fieldName, prompt, new LongChoices<>());
+        }
+        private LongTask(String fieldName, String prompt, LongChoices<Long> choices) {
             super(fieldName, prompt,
                     longInputReaderSupplier,
                     getDefaultValueSupplier(fieldName),
-                    getValueSetter(fieldName));
+                    getValueSetter(fieldName),
+                    choices);
+            this.longChoices = choices;
         }
         public LongTask addChoices(long... choices) {
-            this.choices.addAll(LongStream.of(choices).boxed().collect(Collectors.toList()));
+            checkNotCompiled();
+            for(long choice : choices) {
+                longChoices.add(choice);
+            }
+            choicesChanged();
+            return this;
+        }
+        public LongTask addChoiceRange(long from, long to, long step) {
+            checkNotCompiled();
+            longChoices.addRange(from, to, step);
+            choicesChanged();
             return this;
         }
+        public LongTask addChoiceRange(long from, long to) {
+            return addChoiceRange(from, to, 1);
+        }
     }
 
     public LongTask addLongTask(String fieldName, String prompt) {
+        checkNotCompiled();
         LongTask task = new LongTask(fieldName, prompt);
         tasks.add(task);
         return task;
@@ -278,19 +800,37 @@ public class SwingHandler {
 
 
     public class DoubleTask extends Task<Double, DoubleTask, DoubleInputReader> {
+        private final DoubleChoices doubleChoices;
+
         public DoubleTask(String fieldName, String prompt) {
+            this(fieldName, prompt, new DoubleChoices());
+        }
+        private DoubleTask(String fieldName, String prompt, DoubleChoices choices) {
             super(fieldName, prompt,
                     doubleInputReaderSupplier,
                     getDefaultValueSupplier(fieldName),
-                    getValueSetter(fieldName));
+                    getValueSetter(fieldName),
+                    choices);
+            this.doubleChoices = choices;
         }
         public DoubleTask addChoices(double... choices) {
-            this.choices.addAll(DoubleStream.of(choices).boxed().collect(Collectors.toList()));
+            checkNotCompiled();
+            for(double choice : choices) {
+                doubleChoices.add(choice);
+            }
+            choicesChanged();
+            return this;
+        }
+        public DoubleTask addChoiceRange(double from, double to, double step) {
+            checkNotCompiled();
+            doubleChoices.addRange(from, to, step);
+            choicesChanged();
             return this;
         }
     }
 
     public DoubleTask addDoubleTask(String fieldName, String prompt) {
+        checkNotCompiled();
         DoubleTask task = new DoubleTask(fieldName, prompt);
         tasks.add(task);
         return task;
@@ -300,44 +840,73 @@ public class SwingHandler {
 // TODO - implement Task specializations for: boolean, byte, char, enum, float, short etc.
 
 
+    /**
+     * Binds the handler to the given data object and executes all tasks.
+     */
+    public void execute(Object dataObject) {
+        rebind(dataObject);
+        execute();
+    }
+
     public void execute() {
+        checkNotClosed();
         int step = 0;
         while(step < tasks.size()) {
             terminal.setBookmark("bookmark_" + step);
+            Task<?,?,?> task = tasks.get(step);
+            if(step + 1 < tasks.size()) {
+                tasks.get(step + 1).prepare();
+            }
             try {
-                tasks.get(step).run();
+                task.run();
             } catch (ReadAbortedException e) {
                 if(step > 0) step--;
                 terminal.resetToBookmark("bookmark_" + step);
                 continue;
             }
+            // prepared again, in case the user goes back to it
+            task.prepare();
             step++;
         }
-        historyStore.save();
+        historyStore.requestSave();
     }
 
-    private Field getField(String fieldName) {
-        try {
-            return dataObject.getClass().getField(fieldName);
-        } catch (NoSuchFieldException e) {
-            throw new IllegalArgumentException("Unknown field: " + fieldName);
+    private static synchronized ExecutorService getPreparationExecutor() {
+        if(preparationExecutor == null) {
+            preparationExecutor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "textio-task-preparer");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+        return preparationExecutor;
+    }
+
+    /**
+     * What a task needs before reading its value.
+     */
+    private static final class Preparation<T> {
+        final List<String> history;
+        final ChoiceIndex frequentValues;
+        final T defaultValue;
+
+        Preparation(List<String> history, ChoiceIndex frequentValues, T defaultValue) {
+            this.history = history;
+            this.frequentValues = frequentValues;
+            this.defaultValue = defaultValue;
+        }
+    }
+
+    private FieldAccessor getAccessor(String fieldName) {
+        return FieldAccessor.of(dataObject.getClass(), fieldName);
     }
 
     @SuppressWarnings("unchecked")
     private <V> V getFieldValue(String fieldName) {
-        try {
-            return (V) getField(fieldName).get(dataObject);
-        } catch (Exception e) {
-            throw new IllegalArgumentException("Cannot retrieve value of " + fieldName, e);
-        }
+        return (V) getAccessor(fieldName).get(dataObject);
     }
 
     private <V> void setFieldValue(String fieldName, V value) {
-        try {
-            getField(fieldName).set(dataObject, value);
-        } catch (Exception e) {
-            throw new IllegalArgumentException("Cannot set value of " + fieldName, e);
-        }
+        getAccessor(fieldName).set(dataObject, value);
     }
 }
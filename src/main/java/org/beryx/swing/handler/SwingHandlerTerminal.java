@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.beryx.textio.ReadHandlerData;
+import org.beryx.textio.TerminalProperties;
+import org.beryx.textio.swing.SwingTextTerminal;
+
+import javax.swing.Action;
+import javax.swing.JTextPane;
+import javax.swing.KeyStroke;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A {@link HandlerTerminal} backed by a {@link SwingTextTerminal}.
+ */
+class SwingHandlerTerminal implements HandlerTerminal {
+    private final SwingTextTerminal terminal;
+    private final Map<String, Action> registeredActions = new HashMap<>();
+    private final Map<Runnable, DocumentListener> documentListeners = new HashMap<>();
+
+    SwingHandlerTerminal(SwingTextTerminal terminal) {
+        this.terminal = terminal;
+    }
+
+    @Override
+    public TerminalProperties<?> getProperties() {
+        return terminal.getProperties();
+    }
+
+    @Override
+    public String getPartialInput() {
+        return terminal.getPartialInput();
+    }
+
+    @Override
+    public void replaceInput(String text) {
+        terminal.replaceInput(text, false);
+    }
+
+    @Override
+    public boolean registerHandler(String keyStroke, Function<HandlerTerminal, ReadHandlerData> handler) {
+        if(!terminal.registerHandler(keyStroke, t -> handler.apply(this))) return false;
+        registeredActions.put(keyStroke, terminal.getTextPane().getActionMap().get(getActionKey(keyStroke)));
+        return true;
+    }
+
+    @Override
+    public void unregisterHandler(String keyStroke) {
+        Action action = registeredActions.remove(keyStroke);
+        if(action == null) return;
+        JTextPane textPane = terminal.getTextPane();
+        String actionKey = getActionKey(keyStroke);
+        if(textPane.getActionMap().get(actionKey) == action) {
+            textPane.getActionMap().remove(actionKey);
+            textPane.getInputMap().remove(KeyStroke.getKeyStroke(keyStroke));
+        }
+    }
+
+    /** The key used by {@link SwingTextTerminal#registerHandler(String, Function)} in the input and action maps. */
+    private static String getActionKey(String keyStroke) {
+        return "SwingTextTerminal.handler." + keyStroke.replaceAll("\\s", "-");
+    }
+
+    @Override
+    public void addChangeListener(Runnable listener) {
+        DocumentListener documentListener = new DocumentListener() {
+            @Override public void removeUpdate(DocumentEvent e) {listener.run();}
+            @Override public void insertUpdate(DocumentEvent e) {listener.run();}
+            @Override public void changedUpdate(DocumentEvent e) {listener.run();}
+        };
+        documentListeners.put(listener, documentListener);
+        terminal.getDocument().addDocumentListener(documentListener);
+    }
+
+    @Override
+    public void removeChangeListener(Runnable listener) {
+        DocumentListener documentListener = documentListeners.remove(listener);
+        if(documentListener != null) {
+            terminal.getDocument().removeDocumentListener(documentListener);
+        }
+    }
+
+    @Override
+    public boolean setBookmark(String bookmark) {
+        return terminal.setBookmark(bookmark);
+    }
+
+    @Override
+    public boolean resetToBookmark(String bookmark) {
+        return terminal.resetToBookmark(bookmark);
+    }
+
+    @Override
+    public ChoicePopup createChoicePopup(boolean background) {
+        return new ChoicePopup(terminal, background);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+
+/**
+ * A case-insensitive substring index over the values of a {@link History}, based on the trigrams of the values.
+ * <br>Each (key, value) entry gets an id in the order of its last use, so that the most recently used entries have the highest ids.
+ * Using an entry again appends it with a new id and discards its previous id. The posting list of each trigram
+ * is therefore sorted by recency, and a search scans the shortest posting list of the query backwards,
+ * stopping as soon as enough matches have been found.
+ * <br>The values removed from the history stay in the index; the search skips them, by asking the history whether they are still present.
+ * The history rebuilds the index when it holds too many such entries.
+ * <br>The index is not thread-safe.
+ */
+class TrigramIndex {
+    // open addressing hash table of the posting lists, with the trigrams as keys
+    private long[] trigrams = new long[1024];
+    private IntList[] postings = new IntList[1024];
+    private int trigramCount;
+    /** The current id of each value, per key. */
+    private final Map<String, Map<String, Integer>> ids = new HashMap<>();
+    private final List<String> keys = new ArrayList<>();
+    private final List<String> values = new ArrayList<>();
+    private final List<String> foldedValues = new ArrayList<>();
+    private final BitSet discarded = new BitSet();
+
+    private static class IntList {
+        int[] items = new int[4];
+        int size;
+
+        void add(int item) {
+            if(size == items.length) items = Arrays.copyOf(items, size * 2);
+            items[size++] = item;
+        }
+    }
+
+    /**
+     * Adds an entry, or moves an existing entry to the most recently used position.
+     */
+    public void add(String key, String value) {
+        Integer previousId = ids.computeIfAbsent(key, k -> new HashMap<>()).put(value, values.size());
+        if(previousId != null) {
+            discarded.set(previousId);
+        }
+        int id = values.size();
+        String folded = ChoiceIndex.fold(value);
+        keys.add(key);
+        values.add(value);
+        foldedValues.add(folded);
+        for(int i = 0; i + 3 <= folded.length(); i++) {
+            IntList posting = getPosting(trigram(folded, i), true);
+            // a trigram occurring several times in the value is only recorded once
+            if(posting.size == 0 || posting.items[posting.size - 1] != id) {
+                posting.add(id);
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries, including the discarded ones
+     */
+    public int entryCount() {
+        return values.size();
+    }
+
+    private static long trigram(String s, int start) {
+        return ((long)s.charAt(start) << 32) | ((long)s.charAt(start + 1) << 16) | s.charAt(start + 2);
+    }
+
+    private IntList getPosting(long trigram, boolean create) {
+        int mask = trigrams.length - 1;
+        int slot = slot(trigram, mask);
+        while(postings[slot] != null) {
+            if(trigrams[slot] == trigram) return postings[slot];
+            slot = (slot + 1) & mask;
+        }
+        if(!create) return null;
+        IntList posting = new IntList();
+        trigrams[slot] = trigram;
+        postings[slot] = posting;
+        if(++trigramCount * 2 > trigrams.length) {
+            rehash();
+        }
+        return posting;
+    }
+
+    private static int slot(long trigram, int mask) {
+        return (int)((trigram * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+    }
+
+    private void rehash() {
+        long[] oldTrigrams = trigrams;
+        IntList[] oldPostings = postings;
+        trigrams = new long[oldTrigrams.length * 2];
+        postings = new IntList[oldPostings.length * 2];
+        int mask = trigrams.length - 1;
+        for(int i = 0; i < oldPostings.length; i++) {
+            if(oldPostings[i] == null) continue;
+            int slot = slot(oldTrigrams[i], mask);
+            while(postings[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            trigrams[slot] = oldTrigrams[i];
+            postings[slot] = oldPostings[i];
+        }
+    }
+
+    /**
+     * @param key the key of the entries to search, or null to search the entries of all keys
+     * @param isLive tells whether an entry is still present in the history
+     * @return the distinct values containing the query (ignoring case), most recently used first
+     */
+    public List<String> search(String query, String key, int maxResults, BiPredicate<String, String> isLive) {
+        String folded = ChoiceIndex.fold(query);
+        IntList candidates = null;
+        for(int i = 0; i + 3 <= folded.length(); i++) {
+            IntList posting = getPosting(trigram(folded, i), false);
+            if(posting == null) return new ArrayList<>();
+            if(candidates == null || posting.size < candidates.size) candidates = posting;
+        }
+        List<String> results = new ArrayList<>();
+        Set<String> found = new HashSet<>();
+        int count = (candidates == null) ? values.size() : candidates.size;
+        for(int i = count - 1; i >= 0 && results.size() < maxResults; i--) {
+            int id = (candidates == null) ? i : candidates.items[i];
+            if(discarded.get(id)) continue;
+            if(key != null && !key.equals(keys.get(id))) continue;
+            if(!foldedValues.get(id).contains(folded)) continue;
+            String value = values.get(id);
+            if(found.contains(value) || !isLive.test(keys.get(id), value)) continue;
+            found.add(value);
+            results.add(value);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChoiceFilterTest {
+    private static final List<String> FRUITS = Arrays.asList("banana", "Apple", "apricot", "Blueberry", "apple pie", "avocado", "ap");
+
+    private static List<String> matches(ChoiceFilter filter) {
+        List<String> matches = new ArrayList<>();
+        for(int i = 0; i < filter.size(); i++) {
+            matches.add(filter.get(i));
+        }
+        return matches;
+    }
+
+    private static ChoiceFilter newFilter(List<String> choices) {
+        ChoiceFilter filter = new ChoiceFilter();
+        filter.reset(new ChoiceIndex(choices));
+        return filter;
+    }
+
+    /** Cancels the update at its first progress check. */
+    private static class CancellingProgress implements ChoiceFilter.Progress {
+        int checks;
+
+        @Override
+        public boolean isCancelled() {
+            checks++;
+            return true;
+        }
+
+        @Override
+        public void partialMatches(int[] positions, int count) {
+        }
+    }
+
+    @Test
+    public void extendedInputNarrowsTheMatches() {
+        ChoiceFilter filter = newFilter(FRUITS);
+        assertEquals(5, filter.update("a"));
+        assertEquals(Arrays.asList("Apple", "apricot", "apple pie", "avocado", "ap"), matches(filter));
+        assertEquals(4, filter.update("ap"));
+        assertEquals(Arrays.asList("Apple", "apricot", "apple pie", "ap"), matches(filter));
+        assertEquals(2, filter.update("APPL"));
+        assertEquals(Arrays.asList("Apple", "apple pie"), matches(filter));
+        assertEquals(0, filter.update("applesauce"));
+    }
+
+    @Test
+    public void deletionRecomputesTheMatches() {
+        ChoiceFilter filter = newFilter(FRUITS);
+        filter.update("apple");
+        filter.update("applex");
+        assertEquals(0, filter.size());
+        assertEquals(2, filter.update("apple"));
+        assertEquals(Arrays.asList("Apple", "apple pie"), matches(filter));
+        assertEquals(2, filter.update("b"));
+        assertEquals(Arrays.asList("banana", "Blueberry"), matches(filter));
+        assertEquals(FRUITS.size(), filter.update(""));
+        assertEquals(FRUITS, matches(filter));
+    }
+
+    @Test
+    public void inputDifferingOnlyInCaseKeepsTheMatches() {
+        ChoiceFilter filter = newFilter(FRUITS);
+        filter.update("bl");
+        assertEquals(1, filter.update("BL"));
+        assertEquals(Arrays.asList("Blueberry"), matches(filter));
+    }
+
+    @Test
+    public void resetForgetsThePreviousInput() {
+        ChoiceFilter filter = newFilter(FRUITS);
+        filter.update("ap");
+        filter.reset(new ChoiceIndex(Arrays.asList("apex", "bay", "Apache")));
+        assertEquals(2, filter.update("ap"));
+        assertEquals(Arrays.asList("apex", "Apache"), matches(filter));
+    }
+
+    @Test
+    public void cancelledNarrowingLeavesNoMatches() {
+        List<String> choices = new ArrayList<>();
+        for(int i = 0; i < 3 * ChoiceFilter.CHUNK_SIZE; i++) {
+            choices.add("item" + i);
+        }
+        ChoiceFilter filter = newFilter(choices);
+        assertEquals(choices.size(), filter.update("item"));
+        CancellingProgress progress = new CancellingProgress();
+        assertEquals(-1, filter.update("item1", progress));
+        assertEquals(1, progress.checks);
+        assertEquals(0, filter.size());
+        // the next update starts from scratch
+        int expected = (int)choices.stream().filter(choice -> choice.startsWith("item1")).count();
+        assertEquals(expected, filter.update("item1"));
+        assertEquals("item1", filter.get(0));
+    }
+
+    private static ChoiceFilter newFilter(List<String> choices, MatchMode mode, int maxMatches) {
+        ChoiceFilter filter = new ChoiceFilter();
+        filter.reset(new ChoiceIndex(choices), mode, maxMatches);
+        return filter;
+    }
+
+    @Test
+    public void substringMatchesAreRankedByOffsetThenLength() {
+        List<String> choices = Arrays.asList("pineapple", "Apple", "apple pie", "grape", "snapple", "appl");
+        ChoiceFilter filter = newFilter(choices, MatchMode.SUBSTRING, 10);
+        assertEquals(5, filter.update("APP"));
+        assertEquals(Arrays.asList("appl", "Apple", "apple pie", "snapple", "pineapple"), matches(filter));
+    }
+
+    @Test
+    public void onlyTheBestMatchesArePresented() {
+        List<String> choices = Arrays.asList("pineapple", "Apple", "apple pie", "grape", "snapple", "appl");
+        ChoiceFilter filter = newFilter(choices, MatchMode.SUBSTRING, 2);
+        assertEquals(2, filter.update("app"));
+        assertEquals(Arrays.asList("appl", "Apple"), matches(filter));
+        // the matches that were not presented are still narrowed
+        assertEquals(2, filter.update("apple"));
+        assertEquals(Arrays.asList("Apple", "apple pie"), matches(filter));
+        assertEquals(1, filter.update("pinea"));
+        assertEquals(Arrays.asList("pineapple"), matches(filter));
+    }
+
+    @Test
+    public void equalScoresAreInDeclarationOrder() {
+        List<String> choices = Arrays.asList("bcd", "ABC", "xbc", "abc", "Abc", "abd");
+        ChoiceFilter filter = newFilter(choices, MatchMode.SUBSTRING, 2);
+        assertEquals(2, filter.update("ab"));
+        assertEquals(Arrays.asList("ABC", "abc"), matches(filter));
+        filter.reset(new ChoiceIndex(choices), MatchMode.SUBSTRING, 10);
+        filter.update("ab");
+        assertArrayEquals(new int[] {1, 3, 4, 5}, filter.copyPositions());
+    }
+
+    @Test
+    public void boundedHeapMatchesAFullSort() {
+        Random random = new Random(42);
+        List<String> choices = new ArrayList<>();
+        for(int i = 0; i < 20_000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = 1 + random.nextInt(12);
+            for(int j = 0; j < length; j++) {
+                sb.append((char)('a' + random.nextInt(6)));
+            }
+            choices.add(sb.toString());
+        }
+        ChoiceIndex index = new ChoiceIndex(choices);
+        for(MatchMode mode : Arrays.asList(MatchMode.SUBSTRING, MatchMode.FUZZY)) {
+            ChoiceFilter filter = new ChoiceFilter();
+            filter.reset(index, mode, 50);
+            for(String input : Arrays.asList("a", "ab", "abc", "ab", "cafe", "")) {
+                filter.update(input);
+                assertArrayEquals(mode + " " + input, rankBySorting(index, mode, input, 50), filter.copyPositions());
+            }
+        }
+    }
+
+    private static int[] rankBySorting(ChoiceIndex index, MatchMode mode, String input, int maxMatches) {
+        String folded = ChoiceIndex.fold(input);
+        List<int[]> scored = new ArrayList<>();
+        for(int pos = 0; pos < index.size(); pos++) {
+            int score;
+            if(mode == MatchMode.FUZZY) {
+                score = index.fuzzyScore(pos, folded);
+            } else {
+                int offset = index.indexOf(pos, folded);
+                score = (offset < 0) ? Integer.MIN_VALUE : -(offset * 1024 + Math.min(index.length(pos), 1023));
+            }
+            if(score != Integer.MIN_VALUE) scored.add(new int[] {pos, score});
+        }
+        scored.sort(Comparator.comparingInt((int[] entry) -> -entry[1]).thenComparingInt(entry -> entry[0]));
+        return scored.stream().limit(maxMatches).mapToInt(entry -> entry[0]).toArray();
+    }
+
+    @Test
+    public void fuzzyMatchesFavorWordStartsAndConsecutiveCharacters() {
+        List<String> choices = Arrays.asList("foobar", "fab", "foo bar", "bar foo", "fb");
+        ChoiceFilter filter = newFilter(choices, MatchMode.FUZZY, 10);
+        assertEquals(4, filter.update("fb"));
+        assertEquals(Arrays.asList("fb", "foo bar", "fab", "foobar"), matches(filter));
+        assertEquals(2, filter.update("fba"));
+        assertEquals(Arrays.asList("foo bar", "foobar"), matches(filter));
+    }
+
+    @Test
+    public void partialMatchesAreReportedBestFirst() {
+        List<String> choices = new ArrayList<>();
+        for(int i = 0; i < 2 * ChoiceFilter.CHUNK_SIZE; i++) {
+            choices.add((i % 2 == 0) ? "key" + i : "a key" + i);
+        }
+        ChoiceFilter filter = newFilter(choices, MatchMode.SUBSTRING, 3);
+        List<int[]> partials = new ArrayList<>();
+        int count = filter.update("key", new ChoiceFilter.Progress() {
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+
+            @Override
+            public void partialMatches(int[] positions, int count) {
+                partials.add(Arrays.copyOf(positions, count));
+            }
+        });
+        assertEquals(3, count);
+        assertEquals(2, partials.size());
+        assertArrayEquals(new int[] {0, 2, 4}, partials.get(0));
+        assertArrayEquals(new int[] {0, 2, 4}, filter.copyPositions());
+    }
+
+    @Test
+    public void cancelledRankingLeavesNoMatches() {
+        List<String> choices = new ArrayList<>();
+        for(int i = 0; i < 2 * ChoiceFilter.CHUNK_SIZE; i++) {
+            choices.add("key" + i);
+        }
+        ChoiceFilter filter = newFilter(choices, MatchMode.FUZZY, 10);
+        assertEquals(-1, filter.update("ky", new CancellingProgress()));
+        assertEquals(0, filter.size());
+        assertEquals(10, filter.update("ky"));
+        assertEquals("key0", filter.get(0));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ChoiceIndexTest {
+    private final ChoiceIndex index = new ChoiceIndex(Arrays.asList("banana", "Apple", "apricot", "Blueberry", "apple", "avocado", "ap"));
+
+    private int[] findByPrefix(String prefix) {
+        int[] positions = new int[index.size()];
+        return Arrays.copyOf(positions, index.findByPrefix(prefix, positions));
+    }
+
+    @Test
+    public void prefixMatchesAreInDeclarationOrder() {
+        assertArrayEquals(new int[] {1, 2, 4, 6}, findByPrefix("ap"));
+        assertArrayEquals(new int[] {1, 2, 4, 5, 6}, findByPrefix("a"));
+        assertArrayEquals(new int[] {0, 3}, findByPrefix("b"));
+    }
+
+    @Test
+    public void prefixLookupIgnoresCase() {
+        assertArrayEquals(new int[] {1, 4}, findByPrefix("APPL"));
+        assertArrayEquals(new int[] {3}, findByPrefix("bLUE"));
+    }
+
+    @Test
+    public void emptyPrefixMatchesAllChoices() {
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4, 5, 6}, findByPrefix(""));
+    }
+
+    @Test
+    public void prefixWithoutMatches() {
+        assertEquals(0, findByPrefix("cherry").length);
+        assertEquals(0, findByPrefix("applesauce").length);
+        assertEquals(0, findByPrefix("0").length);
+        assertEquals(0, findByPrefix("zz").length);
+    }
+
+    @Test
+    public void emptyIndex() {
+        assertEquals(0, ChoiceIndex.EMPTY.findByPrefix("a", new int[0]));
+        assertEquals(0, ChoiceIndex.EMPTY.findByPrefix("", new int[0]));
+    }
+
+    @Test
+    public void choicesKeepTheirCase() {
+        assertEquals("Apple", index.get(1));
+        assertTrue(index.startsWith(1, "aPP"));
+        assertFalse(index.startsWith(6, "app"));
+    }
+
+    @Test
+    public void fuzzyScoreRewardsConsecutiveCharactersAndWordStarts() {
+        ChoiceIndex words = new ChoiceIndex(Arrays.asList("foo bar", "foobar", "fb", "Fab", "bar foo"));
+        String pattern = ChoiceIndex.fold("FB");
+        // a first character at the start of the choice, then a character at the start of a word after a gap of 3
+        assertEquals(8 + 3 - 3 + 3, words.fuzzyScore(0, pattern));
+        assertEquals(8 + 3 - 2, words.fuzzyScore(1, pattern));
+        assertEquals(8 + 3 + 5, words.fuzzyScore(2, pattern));
+        assertEquals(8 + 3 - 1, words.fuzzyScore(3, pattern));
+        assertEquals(Integer.MIN_VALUE, words.fuzzyScore(4, pattern));
+        assertEquals(Integer.MIN_VALUE, words.fuzzyScore(1, "fbo"));
+    }
+}
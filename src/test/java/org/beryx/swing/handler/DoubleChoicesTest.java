@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DoubleChoicesTest {
+    @Test
+    public void rangeValuesAreExact() {
+        DoubleChoices choices = new DoubleChoices();
+        choices.addRange(0.1, 1.0, 0.1);
+        assertEquals(10, choices.size());
+        assertEquals(0.3, choices.get(2), 0.0);
+        assertEquals(1.0, choices.get(9), 0.0);
+        assertEquals("0.7", choices.getText(6));
+    }
+
+    @Test
+    public void rangeMembership() {
+        DoubleChoices choices = new DoubleChoices();
+        choices.addRange(0.5, 2.5, 0.25);
+        assertTrue(choices.contains(0.5));
+        assertTrue(choices.contains(0.1 + 0.2 + 1.2));
+        assertTrue(choices.contains(2.5));
+        assertFalse(choices.contains(2.75));
+        assertFalse(choices.contains(0.25));
+        assertFalse(choices.contains(1.1));
+        assertFalse(choices.contains(Double.NaN));
+        assertFalse(choices.contains((Double)null));
+    }
+
+    @Test
+    public void explicitValues() {
+        DoubleChoices choices = new DoubleChoices();
+        choices.add(-0.0);
+        choices.add(1.99);
+        assertTrue(choices.contains(0.0));
+        assertTrue(choices.contains(1.99));
+        assertFalse(choices.contains(1.98));
+    }
+
+    @Test
+    public void positionsSpanSegments() {
+        DoubleChoices choices = new DoubleChoices();
+        choices.add(7.5);
+        choices.add(9.5);
+        choices.addRange(1.0, 2.0, 0.5);
+        choices.add(-1.0);
+        choices.addRange(100.0, 100.2, 0.1);
+        double[] expected = {7.5, 9.5, 1.0, 1.5, 2.0, -1.0, 100.0, 100.1, 100.2};
+        assertEquals(expected.length, choices.size());
+        for(int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], choices.get(i), 0.0);
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void positionOutOfRange() {
+        DoubleChoices choices = new DoubleChoices();
+        choices.addRange(1.0, 3.0, 1.0);
+        choices.get(3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void infiniteBoundsAreRejected() {
+        new DoubleChoices().addRange(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, 1.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void infiniteUpperBoundIsRejected() {
+        new DoubleChoices().addRange(0.0, Double.POSITIVE_INFINITY, 1.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nanBoundIsRejected() {
+        new DoubleChoices().addRange(Double.NaN, 1.0, 1.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void infiniteStepIsRejected() {
+        new DoubleChoices().addRange(0.0, 1.0, Double.POSITIVE_INFINITY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rangeTooWideIsRejected() {
+        new DoubleChoices().addRange(-Double.MAX_VALUE, Double.MAX_VALUE, 1.0);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FieldAccessorTest {
+    public static class Base {
+        private String inherited = "base";
+    }
+
+    public static class Data extends Base {
+        public String name = "field";
+        private String city = "Paris";
+        private boolean active = true;
+        private int count = 3;
+        private final String id = "id-1";
+        private String label = "Label";
+        String hidden = "hidden";
+
+        public String getName() {
+            return "getter";
+        }
+
+        public String getCity() {
+            return city.toUpperCase();
+        }
+
+        public void setCity(String city) {
+            this.city = city + "!";
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+
+        public String isCount() {
+            return "not a boolean getter";
+        }
+
+        public String label() {
+            return label.toLowerCase();
+        }
+    }
+
+    public static class SubData extends Data {
+    }
+
+    @Test
+    public void publicFieldComesFirst() {
+        Data data = new Data();
+        FieldAccessor accessor = FieldAccessor.of(Data.class, "name");
+        assertEquals("field", accessor.get(data));
+        accessor.set(data, "new");
+        assertEquals("new", data.name);
+    }
+
+    @Test
+    public void getterAndSetterComeBeforeTheField() {
+        Data data = new Data();
+        FieldAccessor accessor = FieldAccessor.of(Data.class, "city");
+        assertEquals("PARIS", accessor.get(data));
+        accessor.set(data, "Rome");
+        assertEquals("ROME!", accessor.get(data));
+        assertEquals(String.class, accessor.getType());
+    }
+
+    @Test
+    public void booleanIsserIsAGetter() {
+        Data data = new Data();
+        FieldAccessor accessor = FieldAccessor.of(Data.class, "active");
+        assertEquals(boolean.class, accessor.getType());
+        assertEquals(true, accessor.get(data));
+        accessor.set(data, false);
+        assertFalse(data.isActive());
+    }
+
+    @Test
+    public void nonBooleanIsserIsIgnored() {
+        Data data = new Data();
+        FieldAccessor accessor = FieldAccessor.of(Data.class, "count");
+        assertEquals(int.class, accessor.getType());
+        assertEquals(3, accessor.get(data));
+        accessor.set(data, 4);
+        assertEquals(4, data.count);
+    }
+
+    @Test
+    public void recordStyleAccessor() {
+        FieldAccessor accessor = FieldAccessor.of(Data.class, "label");
+        assertEquals("label", accessor.get(new Data()));
+        assertFalse(accessor.isWritable());
+    }
+
+    @Test
+    public void nonPublicFieldsAreTheFallback() {
+        Data data = new Data();
+        FieldAccessor hidden = FieldAccessor.of(Data.class, "hidden");
+        assertEquals("hidden", hidden.get(data));
+        hidden.set(data, "shown");
+        assertEquals("shown", data.hidden);
+        assertEquals("base", FieldAccessor.of(SubData.class, "inherited").get(new SubData()));
+    }
+
+    @Test
+    public void readOnlyPropertiesAreRejected() {
+        Data data = new Data();
+        for(String name : new String[] {"id", "label"}) {
+            FieldAccessor accessor = FieldAccessor.of(Data.class, name);
+            assertFalse(accessor.isWritable());
+            try {
+                accessor.set(data, "changed");
+                fail("Field " + name + " set");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+        assertEquals("id-1", FieldAccessor.of(Data.class, "id").get(data));
+    }
+
+    @Test
+    public void objectMethodsAreNotAccessors() {
+        for(String name : new String[] {"class", "hashCode", "toString", "unknown"}) {
+            try {
+                FieldAccessor.of(Data.class, name);
+                fail("Accessor found for " + name);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void accessorsAreCachedPerClass() {
+        FieldAccessor accessor = FieldAccessor.of(Data.class, "city");
+        assertSame(accessor, FieldAccessor.of(Data.class, "city"));
+        FieldAccessor subAccessor = FieldAccessor.of(SubData.class, "city");
+        assertNotSame(accessor, subAccessor);
+        assertSame(subAccessor, FieldAccessor.of(SubData.class, "city"));
+        assertEquals("PARIS", subAccessor.get(new SubData()));
+    }
+}
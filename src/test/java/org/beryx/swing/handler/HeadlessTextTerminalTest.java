@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.beryx.textio.ReadHandlerData;
+import org.beryx.textio.ReadInterruptionException;
+import org.beryx.textio.ReadInterruptionStrategy;
+import org.beryx.textio.TextIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class HeadlessTextTerminalTest {
+    private String userHome;
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("textio-headless-test");
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", tempDir.toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        System.setProperty("user.home", userHome);
+        try(Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void keyStrokesTriggerTheirHandlers() {
+        HeadlessTextTerminal terminal = new HeadlessTextTerminal().addInput("ab[ctrl K]cd[pressed UP]", "x[shift pressed F1]y");
+        List<String> seen = new ArrayList<>();
+        terminal.registerHandler("ctrl K", t -> {
+            seen.add(t.getPartialInput());
+            t.replaceInput("K");
+            return new ReadHandlerData(ReadInterruptionStrategy.Action.CONTINUE);
+        });
+        terminal.registerHandler("UP", t -> {
+            seen.add(t.getPartialInput());
+            return new ReadHandlerData(ReadInterruptionStrategy.Action.CONTINUE);
+        });
+        assertEquals("Kcd", terminal.read(false));
+        assertEquals(Arrays.asList("ab", "Kcd"), seen);
+        // a key stroke without handler is ignored
+        assertEquals("xy", terminal.read(false));
+    }
+
+    @Test
+    public void backslashEscapesTheNextCharacter() {
+        HeadlessTextTerminal terminal = new HeadlessTextTerminal().addInput("\\[1]", "a\\\\b", "trailing\\");
+        terminal.registerHandler("1", t -> {
+            throw new AssertionError("handler called");
+        });
+        assertEquals("[1]", terminal.read(false));
+        assertEquals("a\\b", terminal.read(false));
+        assertEquals("trailing\\", terminal.read(false));
+    }
+
+    @Test
+    public void restartKeepsThePartialInput() {
+        HeadlessTextTerminal terminal = new HeadlessTextTerminal().addInput("abc[ctrl R]ignored", "def", "ghi[ctrl A]", "jkl");
+        terminal.registerHandler("ctrl R", t -> new ReadHandlerData(ReadInterruptionStrategy.Action.RESTART));
+        terminal.registerHandler("ctrl A", t -> new ReadHandlerData(ReadInterruptionStrategy.Action.ABORT));
+        try {
+            terminal.read(false);
+            fail("The read was not interrupted");
+        } catch (ReadInterruptionException e) {
+            assertEquals("abc", e.getPartialInput());
+        }
+        assertEquals("abcdef", terminal.read(false));
+        try {
+            terminal.read(false);
+            fail("The read was not interrupted");
+        } catch (ReadInterruptionException e) {
+            assertEquals("ghi", e.getPartialInput());
+        }
+        // an aborted read does not keep its input
+        assertEquals("jkl", terminal.read(false));
+    }
+
+    @Test
+    public void readingPastTheEndOfTheScriptFails() {
+        HeadlessTextTerminal terminal = new HeadlessTextTerminal().addInput("only");
+        assertTrue(terminal.hasMoreInput());
+        assertEquals("only", terminal.read(false));
+        assertFalse(terminal.hasMoreInput());
+        try {
+            terminal.read(false);
+            fail("Read past the end of the script");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void outputIsRecordedAndMasked() {
+        HeadlessTextTerminal terminal = new HeadlessTextTerminal().addInput("user", "secret");
+        terminal.rawPrint("Name: ");
+        terminal.read(false);
+        terminal.rawPrint("Password: ");
+        terminal.read(true);
+        assertEquals("Name: user\nPassword: ******\n", terminal.getOutput());
+    }
+
+    public static class Product {
+        public String name;
+        public int quantity = 1;
+        public Double unitPrice;
+    }
+
+    @Test
+    public void compiledFormRunsEndToEnd() {
+        HeadlessTextTerminal terminal = new HeadlessTextTerminal();
+        terminal.getProperties().put("custom.history.save.delay.ms", "-1");
+        terminal.addInput(
+                "Ban[pressed UP]", "3", "[ctrl U]", "5", "1.99",
+                "bl[pressed UP][pressed UP]", "[ctrl shift pressed RIGHT]", "2.5");
+        TextIO textIO = new TextIO(terminal);
+        try(SwingHandler handler = new SwingHandler(textIO, "test-form", new Product())) {
+            handler.addStringTask("name", "Name").addChoices("Apple", "Banana", "Blackberry", "Blueberry");
+            handler.addIntTask("quantity", "Quantity");
+            handler.addDoubleTask("unitPrice", "Unit price");
+            handler.compile();
+
+            Product first = new Product();
+            handler.execute(first);
+            assertEquals("Banana", first.name);
+            assertEquals(5, first.quantity);
+            assertEquals(1.99, first.unitPrice, 0.0);
+
+            Product second = new Product();
+            handler.execute(second);
+            assertEquals("Blueberry", second.name);
+            // the previous quantity, recalled from the history
+            assertEquals(5, second.quantity);
+            assertEquals(2.5, second.unitPrice, 0.0);
+            assertFalse(terminal.hasMoreInput());
+        } finally {
+            textIO.dispose();
+        }
+    }
+}
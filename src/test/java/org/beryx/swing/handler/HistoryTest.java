@@ -0,0 +1,415 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class HistoryTest {
+    private String userHome;
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("textio-history-test");
+        userHome = System.getProperty("user.home");
+        System.setProperty("user.home", tempDir.toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        System.setProperty("user.home", userHome);
+        try(Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private History newHistory() {
+        return new History("test").withSaveDelay(-1).withSearchIndexExecutor(Runnable::run);
+    }
+
+    @Test
+    public void searchFindsSubstringsMostRecentFirst() {
+        History history = newHistory();
+        history.prepareSearch();
+        history.addValue("name", "Alice");
+        history.addValue("name", "Malik");
+        history.addValue("city", "Salisbury");
+        history.addValue("name", "Bob");
+        assertEquals(Arrays.asList("Salisbury", "Malik", "Alice"), history.search("LI", null, 10));
+        assertEquals(Arrays.asList("Malik", "Alice"), history.search("li", "name", 10));
+        assertEquals(Arrays.asList("Salisbury"), history.search("sal", null, 10));
+        assertEquals(Arrays.asList("Salisbury", "Malik"), history.search("li", null, 2));
+    }
+
+    @Test
+    public void searchKeepsIndexUpToDate() {
+        History history = newHistory();
+        history.addValue("name", "Alice");
+        history.prepareSearch();
+        history.addValue("name", "Alicia");
+        history.addValue("city", "Alice Springs");
+        history.addValue("name", "Alice");
+        assertEquals(Arrays.asList("Alice", "Alice Springs", "Alicia"), history.search("alic", null, 10));
+    }
+
+    /**
+     * Adds the values with distinct timestamps, because a search that does not use an up-to-date index
+     * orders the values of different keys by the time of their last use.
+     */
+    private static void addValues(History history, String... keysAndValues) throws InterruptedException {
+        for(int i = 0; i < keysAndValues.length; i += 2) {
+            history.addValue(keysAndValues[i], keysAndValues[i + 1]);
+            Thread.sleep(2);
+        }
+    }
+
+    @Test
+    public void searchScansValuesUntilIndexIsBuilt() throws InterruptedException {
+        List<Runnable> tasks = new ArrayList<>();
+        History history = new History("test").withSaveDelay(-1).withSearchIndexExecutor(tasks::add);
+        addValues(history, "name", "Alice", "name", "Bob", "city", "Alicante");
+        assertEquals(Arrays.asList("Alicante", "Alice"), history.search("ali", null, 10));
+        assertEquals(0, history.getSearchIndexEntryCount());
+        assertEquals(1, tasks.size());
+
+        history.addValue("name", "Alina");
+        tasks.remove(0).run();
+        assertTrue(history.getSearchIndexEntryCount() >= 4);
+        assertEquals(Arrays.asList("Alina", "Alicante", "Alice"), history.search("ali", null, 10));
+    }
+
+    @Test
+    public void searchIndexStaysBoundedPastTheCap() {
+        History history = newHistory().withMaxValuesPerKey(50);
+        history.prepareSearch();
+        int maxEntries = 2 * 1000;
+        for(int i = 0; i < 50_000; i++) {
+            history.addValue("key" + (i % 3), "value" + (i % 700));
+            assertTrue("entries: " + history.getSearchIndexEntryCount(), history.getSearchIndexEntryCount() <= maxEntries + 1);
+        }
+        // the last value added is value299, and only the last 150 values are kept
+        assertEquals(Arrays.asList("value299", "value298"), history.search("value29", null, 2));
+        assertTrue(history.search("value0", null, 10).isEmpty());
+        assertEquals(150, history.search("value", null, 1000).size());
+    }
+
+    @Test
+    public void tornJournalEntryIsDroppedBeforeAppending() throws IOException {
+        History history = newHistory();
+        history.addValue("color", "red");
+        history.save();
+        Path journal = tempDir.resolve("textio-test.history.journal");
+        Files.write(journal, (System.currentTimeMillis() + "\tcolor\tgre").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        history = newHistory();
+        assertEquals(Collections.singletonList("red"), history.getValues("color"));
+        history.addValue("color", "blue");
+        history.save();
+
+        assertEquals(Arrays.asList("blue", "red"), newHistory().getValues("color"));
+    }
+
+    @Test
+    public void tornJournalHeaderStartsNewJournal() throws IOException {
+        Files.write(tempDir.resolve("textio-test.history.journal"), "#12".getBytes(StandardCharsets.UTF_8));
+        History history = newHistory();
+        history.addValue("color", "red");
+        history.save();
+
+        assertEquals(Collections.singletonList("red"), newHistory().getValues("color"));
+    }
+
+    @Test
+    public void unreadableSnapshotIsMovedAsideAndNeverCompactedOver() throws IOException {
+        Path snapshot = tempDir.resolve("textio-test.history");
+        try(DataOutputStream out = new DataOutputStream(Files.newOutputStream(snapshot))) {
+            out.writeInt(0x54584849);
+            out.writeInt(1);
+            out.writeLong(42);
+            // the offset of the key index points past the end of the file
+            out.writeLong(1000);
+        }
+        Files.write(tempDir.resolve("textio-test.history.journal"),
+                ("#42\n" + System.currentTimeMillis() + "\tcolor\tred\n").getBytes(StandardCharsets.UTF_8));
+
+        History history = newHistory();
+        assertEquals(Collections.singletonList("red"), history.getValues("color"));
+        assertFalse(Files.exists(snapshot));
+        assertTrue(Files.exists(tempDir.resolve("textio-test.history.corrupt")));
+
+        for(int i = 0; i < 1500; i++) {
+            history.addValue("key", "value" + i);
+        }
+        history.save();
+        assertFalse(Files.exists(snapshot));
+        assertEquals(Collections.singletonList("red"), newHistory().getValues("color"));
+    }
+
+    @Test
+    public void valuesAddedDuringCompactionAreCountedOnce() throws InterruptedException {
+        History history = newHistory().withMaxValuesPerKey(0).withMaxValues(0);
+        int valueCount = 100_000;
+        Thread adder = new Thread(() -> {
+            for(int i = 0; i < valueCount; i++) {
+                history.addValue("key", "value" + i);
+            }
+        });
+        adder.start();
+        while(adder.isAlive()) {
+            history.save();
+        }
+        adder.join();
+        history.save();
+
+        // each value is used once, so ranking by frecency keeps the recency order
+        History reloaded = newHistory().withMaxValuesPerKey(0).withMaxValues(0);
+        List<String> values = reloaded.getValues("key");
+        assertEquals(valueCount, values.size());
+        assertEquals(values, reloaded.getFrequentValues("key"));
+    }
+
+    @Test
+    public void sharedHistoryIsConfiguredByItsFirstUser() {
+        History first = History.acquire("test", history -> history.withMaxValuesPerKey(2));
+        History second = History.acquire("test", history -> history.withMaxValuesPerKey(5));
+        try {
+            assertSame(first, second);
+            for(int i = 0; i < 4; i++) {
+                second.addValue("key", "value" + i);
+            }
+            assertEquals(Arrays.asList("value3", "value2"), second.getValues("key"));
+        } finally {
+            second.release();
+            first.release();
+        }
+    }
+
+    @Test
+    public void timesAreRecordedInTheLatestAttachedMetrics() {
+        History history = newHistory();
+        HandlerMetrics first = new HandlerMetrics("test");
+        HandlerMetrics second = new HandlerMetrics("test");
+        history.attachMetrics(first).attachMetrics(second);
+        history.search("a", null, 10);
+        assertEquals(0, first.latency(HandlerMetrics.HISTORY_SEARCH).getCount());
+        assertEquals(1, second.latency(HandlerMetrics.HISTORY_SEARCH).getCount());
+
+        history.detachMetrics(second);
+        history.search("a", null, 10);
+        assertEquals(1, first.latency(HandlerMetrics.HISTORY_SEARCH).getCount());
+        assertEquals(1, second.latency(HandlerMetrics.HISTORY_SEARCH).getCount());
+
+        history.detachMetrics(first);
+        history.search("a", null, 10);
+        assertEquals(1, first.latency(HandlerMetrics.HISTORY_SEARCH).getCount());
+    }
+
+    private Path snapshotPath() {
+        return tempDir.resolve("textio-test.history");
+    }
+
+    private Path journalPath() {
+        return tempDir.resolve("textio-test.history.journal");
+    }
+
+    @Test
+    public void journalIsReplayedOnReopen() {
+        History history = newHistory();
+        history.addValue("name", "Alice");
+        history.addValue("city", "Paris");
+        history.addValue("name", "Bob");
+        history.addValue("name", "Alice");
+        history.save();
+        assertTrue(Files.exists(journalPath()));
+        assertFalse(Files.exists(snapshotPath()));
+
+        History reopened = newHistory();
+        assertEquals(Arrays.asList("Alice", "Bob"), reopened.getValues("name"));
+        assertEquals(Collections.singletonList("Paris"), reopened.getValues("city"));
+        assertTrue(reopened.getValues("country").isEmpty());
+    }
+
+    @Test
+    public void specialCharactersSurviveTheJournalAndTheSnapshot() {
+        String value = "tab\there\nnew line\\ back\rslash \u00e9\u20ac";
+        History history = newHistory();
+        history.addValue("key\twith tab", value);
+        history.save();
+        assertEquals(Collections.singletonList(value), newHistory().getValues("key\twith tab"));
+
+        history = newHistory();
+        for(int i = 0; i < 1100; i++) {
+            history.addValue("other", "value" + i);
+        }
+        history.save();
+        assertTrue(Files.exists(snapshotPath()));
+        assertEquals(Collections.singletonList(value), newHistory().getValues("key\twith tab"));
+    }
+
+    @Test
+    public void compactionFoldsTheJournalIntoTheSnapshot() {
+        History history = newHistory().withMaxValuesPerKey(0).withMaxValues(0);
+        for(int i = 0; i < 1100; i++) {
+            history.addValue("key" + (i % 3), "value" + i);
+        }
+        history.save();
+        assertTrue(Files.exists(snapshotPath()));
+        assertFalse(Files.exists(journalPath()));
+
+        // the events added after the compaction go to a new journal
+        history.addValue("key0", "after");
+        history.save();
+        assertTrue(Files.exists(journalPath()));
+
+        History reopened = newHistory().withMaxValuesPerKey(0).withMaxValues(0);
+        List<String> values = reopened.getValues("key0");
+        assertEquals(368, values.size());
+        assertEquals(Arrays.asList("after", "value1098", "value1095"), values.subList(0, 3));
+        assertEquals("value0", values.get(values.size() - 1));
+        assertEquals(366, reopened.getValues("key2").size());
+    }
+
+    private void compactWithValues(History history, int count) {
+        for(int i = 0; i < count; i++) {
+            history.addValue("filler", "value" + i);
+        }
+        history.save();
+        assertTrue(Files.exists(snapshotPath()));
+        assertFalse(Files.exists(journalPath()));
+    }
+
+    @Test
+    public void journalIncludedInTheSnapshotIsNotReplayed() throws IOException {
+        History history = newHistory();
+        history.addValue("color", "red");
+        history.save();
+        long journalId = Long.parseLong(Files.readAllLines(journalPath(), StandardCharsets.UTF_8).get(0).substring(1));
+        compactWithValues(history, 1100);
+
+        // the journal left behind by a compaction interrupted before deleting it
+        Files.write(journalPath(), ("#" + journalId + "\n" + System.currentTimeMillis() + "\tcolor\tred\n").getBytes(StandardCharsets.UTF_8));
+        history = newHistory();
+        assertEquals(Collections.singletonList("red"), history.getValues("color"));
+        history.addValue("color", "blue");
+        history.save();
+        assertNotEquals("#" + journalId, Files.readAllLines(journalPath(), StandardCharsets.UTF_8).get(0));
+
+        History reopened = newHistory();
+        assertEquals(Arrays.asList("blue", "red"), reopened.getValues("color"));
+        // red was used once: the frecency of blue, used more recently, is not lower
+        assertEquals(Arrays.asList("blue", "red"), reopened.getFrequentValues("color"));
+    }
+
+    @Test
+    public void journalWithAnotherIdIsReplayed() throws IOException {
+        History history = newHistory();
+        compactWithValues(history, 1100);
+        Files.write(journalPath(), ("#1\n" + System.currentTimeMillis() + "\tcolor\tred\n").getBytes(StandardCharsets.UTF_8));
+        assertEquals(Collections.singletonList("red"), newHistory().getValues("color"));
+    }
+
+    @Test
+    public void frequentValuesComeFirst() throws InterruptedException {
+        History history = newHistory();
+        addValues(history, "color", "red", "color", "green", "color", "red", "color", "blue", "color", "red", "color", "green");
+        assertEquals(Arrays.asList("green", "red", "blue"), history.getValues("color"));
+        assertEquals(Arrays.asList("red", "green", "blue"), history.getFrequentValues("color"));
+        history.save();
+        assertEquals(Arrays.asList("red", "green", "blue"), newHistory().getFrequentValues("color"));
+
+        // the counts are kept by the snapshot
+        compactWithValues(newHistory(), 1100);
+        History reopened = newHistory();
+        assertEquals(Arrays.asList("green", "red", "blue"), reopened.getValues("color"));
+        assertEquals(Arrays.asList("red", "green", "blue"), reopened.getFrequentValues("color"));
+    }
+
+    @Test
+    public void eachKeyKeepsItsMostRecentValues() {
+        History history = newHistory().withMaxValuesPerKey(3);
+        for(String value : Arrays.asList("a", "b", "c", "a", "d", "e")) {
+            history.addValue("key", value);
+        }
+        assertEquals(Arrays.asList("e", "d", "a"), history.getValues("key"));
+        history.save();
+        assertEquals(Arrays.asList("e", "d", "a"), newHistory().withMaxValuesPerKey(3).getValues("key"));
+    }
+
+    @Test
+    public void globalLimitEvictsTheEldestValuesOfAllKeys() throws InterruptedException {
+        History history = newHistory().withMaxValues(4);
+        addValues(history, "k1", "a", "k2", "b", "k1", "c", "k3", "d", "k2", "e", "k1", "a", "k3", "f");
+        history.save();
+        // the eldest uses are b and c; a was used again
+        assertEquals(Collections.singletonList("a"), history.getValues("k1"));
+        assertEquals(Collections.singletonList("e"), history.getValues("k2"));
+        assertEquals(Arrays.asList("f", "d"), history.getValues("k3"));
+
+        // the journal still holds the evicted values, and reading a key enforces the limit on the keys loaded so far
+        History reopened = newHistory().withMaxValues(4);
+        assertEquals(Arrays.asList("a", "c"), reopened.getValues("k1"));
+        assertEquals(Arrays.asList("f", "d"), reopened.getValues("k3"));
+        assertEquals(Collections.singletonList("e"), reopened.getValues("k2"));
+        assertEquals(Collections.singletonList("a"), reopened.getValues("k1"));
+    }
+
+    @Test
+    public void globalLimitAppliesToTheWholeHistoryOnCompaction() throws InterruptedException {
+        History history = newHistory().withMaxValuesPerKey(0).withMaxValues(0);
+        addValues(history, "old", "x", "old", "y");
+        for(int i = 0; i < 1100; i++) {
+            history.addValue("new", "value" + i);
+        }
+        history.save();
+
+        // the key "old" is never read, but the compaction loads it to enforce the limit
+        history = newHistory().withMaxValuesPerKey(0).withMaxValues(1000);
+        compactWithValues(history, 1200);
+        History reopened = newHistory().withMaxValuesPerKey(0).withMaxValues(0);
+        assertTrue(reopened.getValues("old").isEmpty());
+        assertEquals(1000, reopened.getValues("new").size() + reopened.getValues("filler").size());
+    }
+
+    @Test
+    public void valuesOlderThanTheMaxAgeAreDropped() throws IOException {
+        long now = System.currentTimeMillis();
+        long day = TimeUnit.DAYS.toMillis(1);
+        String journal = "#1\n" + (now - 10 * day) + "\tkey\told\n" + (now - 2 * day) + "\tkey\trecent\n" + (now - 20 * day) + "\tstale\tvalue\n";
+        Files.write(journalPath(), journal.getBytes(StandardCharsets.UTF_8));
+        History history = newHistory().withMaxAge(5 * day);
+        assertEquals(Collections.singletonList("recent"), history.getValues("key"));
+        assertTrue(history.getValues("stale").isEmpty());
+    }
+}
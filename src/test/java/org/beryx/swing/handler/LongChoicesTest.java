@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beryx.swing.handler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LongChoicesTest {
+    @Test
+    public void rangeNearMinValue() {
+        LongChoices<Long> choices = new LongChoices<>();
+        choices.addRange(Long.MIN_VALUE, Long.MIN_VALUE + 10, 5);
+        assertEquals(3, choices.size());
+        assertEquals(Long.MIN_VALUE + 10, choices.get(2));
+        assertTrue(choices.contains(Long.MIN_VALUE + 5));
+        assertFalse(choices.contains(Long.MIN_VALUE + 4));
+        assertFalse(choices.contains(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void rangeNearMaxValue() {
+        LongChoices<Long> choices = new LongChoices<>();
+        choices.addRange(Long.MAX_VALUE - 6, Long.MAX_VALUE, 3);
+        assertEquals(3, choices.size());
+        assertEquals(Long.MAX_VALUE, choices.get(2));
+        assertTrue(choices.contains(Long.MAX_VALUE - 3));
+        assertFalse(choices.contains(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void rangeWiderThanMaxValue() {
+        LongChoices<Long> choices = new LongChoices<>();
+        long step = Long.MAX_VALUE / 2;
+        choices.addRange(-Long.MAX_VALUE, Long.MAX_VALUE, step);
+        assertEquals(5, choices.size());
+        assertEquals(-Long.MAX_VALUE, choices.get(0));
+        assertEquals(-Long.MAX_VALUE + 4 * step, choices.get(4));
+        assertTrue(choices.contains(-Long.MAX_VALUE + 3 * step));
+        assertFalse(choices.contains(-Long.MAX_VALUE + 3 * step + 1));
+        assertFalse(choices.contains(0));
+    }
+
+    @Test
+    public void negativeStartWithLargeValue() {
+        LongChoices<Long> choices = new LongChoices<>();
+        choices.addRange(-10, Long.MAX_VALUE - 1, Long.MAX_VALUE);
+        assertEquals(2, choices.size());
+        assertEquals(Long.MAX_VALUE - 10, choices.get(1));
+        assertTrue(choices.contains(Long.MAX_VALUE - 10));
+        assertFalse(choices.contains(Long.MAX_VALUE - 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fullRangeIsRejected() {
+        new LongChoices<Long>().addRange(Long.MIN_VALUE, Long.MAX_VALUE, 1);
+    }
+
+    @Test
+    public void positionsSpanSegments() {
+        LongChoices<Long> choices = new LongChoices<>();
+        choices.add(7);
+        choices.add(9);
+        choices.addRange(100, 200, 50);
+        choices.add(-1);
+        choices.addRange(1000, 1002, 1);
+        long[] expected = {7, 9, 100, 150, 200, -1, 1000, 1001, 1002};
+        assertEquals(expected.length, choices.size());
+        for(int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], choices.get(i));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void positionOutOfRange() {
+        LongChoices<Long> choices = new LongChoices<>();
+        choices.addRange(1, 3, 1);
+        choices.get(3);
+    }
+}